@@ -0,0 +1,11 @@
+package com.expedia.alertmanager.model;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class BatchMatchSubscriptionRequest {
+    private List<Map<String, String>> labels;
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Change of a subscription, published by subscription service on every create, update and delete.
+ */
+@Data
+@ToString
+@EqualsAndHashCode
+@NoArgsConstructor
+@AllArgsConstructor
+public class SubscriptionChangeEvent {
+    public enum Operation {
+        CREATE, UPDATE, DELETE
+    }
+
+    private String id;
+    /**
+     * version of the subscription document after the change.
+     */
+    private long version;
+    private Operation operation;
+    /**
+     * subscription after the change, null when it is deleted.
+     */
+    private SubscriptionResponse subscription;
+}
@@ -28,6 +28,16 @@ public interface AlertStore {
 
     public interface WriteCallback {
         void onComplete(Optional<Exception> ex);
+
+        /**
+         * called before onComplete with the alerts the store rejected permanently and will not retry,
+         * the alerts are dropped unless the callback keeps them
+         * @param alerts rejected alerts
+         * @param ex reason of the rejection
+         */
+        default void onDeadLetter(final List<AlertWithId> alerts, final Exception ex) {
+            /* dropped */
+        }
     }
 
     void read(final Map<String, String> labels, long from, long to, int size, ReadCallback callback);
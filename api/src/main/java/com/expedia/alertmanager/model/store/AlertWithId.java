@@ -27,4 +27,8 @@ import lombok.ToString;
 public class AlertWithId {
     private Alert alert;
     private String id;
+    /**
+     * alert json as consumed from kafka, when set the store writes it as is and the alert is not deserialized.
+     */
+    private byte[] rawAlert;
 }
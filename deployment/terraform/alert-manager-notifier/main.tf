@@ -46,8 +46,6 @@ data "template_file" "config_data" {
     alert_rate_limit_enabled = "${var.alert_rate_limit_enabled}"
     alert_rate_limit_value = "${var.alert_rate_limit_value}"
     alert_expiry_time_in_sec = "${var.alert_expiry_time_in_sec}"
-    alert_store_es_urls = "${var.alert_store_es_urls}"
-    alert_store_es_config_vars_json = "${var.alert_store_es_config_vars_json}"
   }
 }
 
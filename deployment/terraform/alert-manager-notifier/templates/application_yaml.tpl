@@ -25,10 +25,6 @@ alert:
     value: ${alert_rate_limit_value}
   expiry-time-in-sec: ${alert_expiry_time_in_sec}
 
-alert-store-es:
-  host: "${alert_store_es_urls}"
-  config: ${alert_store_es_config_vars_json}
-
 smtp:
   host: localhost
   port: 25
@@ -8,8 +8,6 @@ variable "mail_from" {}
 variable "alert_rate_limit_enabled" {}
 variable "alert_rate_limit_value" {}
 variable "alert_expiry_time_in_sec" {}
-variable "alert_store_es_urls" {}
-variable "alert_store_es_config_vars_json" {}
 variable "graphite_hostname" {}
 variable "graphite_port" {}
 variable "graphite_enabled" {}
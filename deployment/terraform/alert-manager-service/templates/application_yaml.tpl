@@ -17,6 +17,7 @@ kafka:
     value.serializer: org.springframework.kafka.support.serializer.JsonSerializer
     request.timeout.ms: 40000
     topic: alerts
+    subscription-changes-topic: subscription-changes
 
 alert.store:
   pluginDirectory: "/app/bin/storage-backends"
@@ -109,6 +109,4 @@ module "alert-manager-notifier" {
   alert_rate_limit_enabled = "${var.alert-manager-notifier["alert_rate_limit_enabled"]}"
   alert_rate_limit_value = "${var.alert-manager-notifier["alert_rate_limit_value"]}"
   alert_expiry_time_in_sec = "${var.alert-manager-notifier["alert_expiry_time_in_sec"]}"
-  alert_store_es_urls = "${var.alert-manager-notifier["alert_store_es_urls"]}"
-  alert_store_es_config_vars_json = "${var.alert-manager-notifier["alert_store_es_config_vars_json"]}"
 }
@@ -15,9 +15,7 @@
  */
 package com.expedia.alertmanager.notifier.action;
 
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
-import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceClientBuilder;
+import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceAsync;
 import com.amazonaws.services.simpleemail.model.Body;
 import com.amazonaws.services.simpleemail.model.Content;
 import com.amazonaws.services.simpleemail.model.Destination;
@@ -28,42 +26,69 @@ import com.expedia.alertmanager.model.Alert;
 import com.expedia.alertmanager.model.Dispatcher;
 import com.expedia.alertmanager.model.util.EmailDispatcherHelper;
 import com.expedia.alertmanager.notifier.builder.MessageComposer;
+import com.expedia.alertmanager.notifier.util.LruCache;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
 @Slf4j
 public class AwsSesNotifier implements Notifier {
 
-
     private final String from;
-    private final Dispatcher dispatcher;
+    private final AmazonSimpleEmailServiceAsync client;
+    private final boolean async;
+    private final int maxRecipientsPerRequest;
+    private final LruCache<String, List<String>> recipients;
     private MessageComposer emailComposer;
 
-    public AwsSesNotifier(MessageComposer emailComposer, String from, Dispatcher dispatcher) {
+    public AwsSesNotifier(MessageComposer emailComposer, String from, AmazonSimpleEmailServiceAsync client,
+                          boolean async, int maxRecipientsPerRequest, int recipientsCacheSize) {
         this.emailComposer = emailComposer;
         this.from = from;
-        this.dispatcher = dispatcher;
+        this.client = client;
+        this.async = async;
+        this.maxRecipientsPerRequest = maxRecipientsPerRequest;
+        this.recipients = new LruCache<>(recipientsCacheSize);
     }
 
+    /**
+     * Sends the alert to the recipients of the dispatcher. The message is built once and sent in chunks of
+     * recipients that fit in a single SES request; in async mode the chunks are sent concurrently.
+     */
     @Override
-    public void notify(Alert alert) {
+    public void notify(Alert alert, Dispatcher dispatcher) {
         try {
-            AmazonSimpleEmailService client =
-                AmazonSimpleEmailServiceClientBuilder.standard()
-                    .withRegion(Regions.US_WEST_2).build();
             //TODO - build email content from template
-            SendEmailRequest request = new SendEmailRequest()
-                .withDestination(
-                    new Destination().withToAddresses(EmailDispatcherHelper.getToEmails(dispatcher)))
-                .withMessage(new Message()
-                    .withBody(new Body()
-                        .withHtml(new Content()
-                            .withCharset("UTF-8").withData(emailComposer.buildContent(alert, "email-template.ftl"))))
-                    .withSubject(new Content()
-                        .withCharset("UTF-8").withData("[Alert Manager Alert] You have an Alert :" + alert.getName())))
-                .withSource(from);
-            final SendEmailResult sendEmailResult = client.sendEmail(request);
-            log.info("Email sent status: {}", sendEmailResult);
-
+            Message message = new Message()
+                .withBody(new Body()
+                    .withHtml(new Content()
+                        .withCharset("UTF-8")
+                        .withData(emailComposer.buildContent(alert, MessageComposer.EMAIL_TEMPLATE))))
+                .withSubject(new Content()
+                    .withCharset("UTF-8").withData("[Alert Manager Alert] You have an Alert :" + alert.getName()));
+            List<String> toEmails = recipients.computeIfAbsent(dispatcher.getEndpoint(),
+                endpoint -> EmailDispatcherHelper.getToEmails(dispatcher));
+            List<Future<SendEmailResult>> pendingResults = new ArrayList<>();
+            for (int i = 0; i < toEmails.size(); i += maxRecipientsPerRequest) {
+                SendEmailRequest request = new SendEmailRequest()
+                    .withDestination(new Destination()
+                        .withToAddresses(toEmails.subList(i, Math.min(i + maxRecipientsPerRequest, toEmails.size()))))
+                    .withMessage(message)
+                    .withSource(from);
+                if (async) {
+                    pendingResults.add(client.sendEmailAsync(request));
+                } else {
+                    log.info("Email sent status: {}", client.sendEmail(request));
+                }
+            }
+            for (Future<SendEmailResult> pendingResult : pendingResults) {
+                log.info("Email sent status: {}", pendingResult.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("SES email failed to send", ex);
         } catch (Exception ex) {
             log.error("SES email failed to send", ex);
         }
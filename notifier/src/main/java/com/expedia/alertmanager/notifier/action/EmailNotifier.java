@@ -16,7 +16,9 @@
 package com.expedia.alertmanager.notifier.action;
 
 import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
 import com.expedia.alertmanager.notifier.builder.MessageComposer;
+import com.expedia.alertmanager.notifier.util.LruCache;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.mail.Authenticator;
@@ -24,7 +26,7 @@ import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
-import javax.mail.Transport;
+import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import java.util.Properties;
@@ -33,16 +35,17 @@ import java.util.Properties;
 public class EmailNotifier implements Notifier {
 
     private final String from;
-    private final String to;
-    private final Session session;
+    private final SmtpTransportPool transportPool;
+    private final LruCache<String, InternetAddress[]> recipients;
     private MessageComposer emailComposer;
 
-    public EmailNotifier(MessageComposer emailComposer, String from, String to,
+    public EmailNotifier(MessageComposer emailComposer, String from,
                          String host, String port, String username, String password,
-                         boolean startTlsEnabled) {
+                         boolean startTlsEnabled, int recipientsCacheSize,
+                         int maxConnections, long connectionIdleTimeoutMs, int maxMessagesPerConnection) {
         this.emailComposer = emailComposer;
         this.from = from;
-        this.to = to;
+        this.recipients = new LruCache<>(recipientsCacheSize);
         Properties properties = new Properties();
         properties.put("mail.transport.protocol", "smtp");
         properties.put("mail.smtp.host", host);
@@ -52,7 +55,8 @@ public class EmailNotifier implements Notifier {
         properties.put("mail.smtp.starttls.enable", "true");
         properties.put("mail.smtp.auth", isAuthEnabled(username) ? "true" : "false");
         Authenticator authenticator = buildAuthenticator(username, password);
-        session = Session.getDefaultInstance(properties, authenticator);
+        transportPool = new SmtpTransportPool(Session.getInstance(properties, authenticator),
+            maxConnections, connectionIdleTimeoutMs, maxMessagesPerConnection);
     }
 
     private boolean isAuthEnabled(String username) {
@@ -71,19 +75,35 @@ public class EmailNotifier implements Notifier {
     }
 
     @Override
-    public void notify(Alert alert) {
+    public void notify(Alert alert, Dispatcher dispatcher) {
+        String to = dispatcher.getEndpoint();
         log.info("Sending alert to " + to +  ". Alert is " + alert.toString());
         try {
-            Message message = new MimeMessage(session);
+            Message message = new MimeMessage(transportPool.getSession());
             message.setFrom(new InternetAddress(from));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
+            message.setRecipients(Message.RecipientType.TO, getRecipients(to));
             ((MimeMessage) message).setSubject("[Alert Manager Alert] You have an Alert :" + alert.getName(), "UTF-8");
-            ((MimeMessage) message).setText(emailComposer.buildContent(alert, "email-template.ftl"), "UTF-8", "html");
-            Transport.send(message);
+            ((MimeMessage) message).setText(emailComposer.buildContent(alert, MessageComposer.EMAIL_TEMPLATE),
+                "UTF-8", "html");
+            transportPool.send(message);
             log.info("Email sent successfully");
         } catch (MessagingException e) {
             log.error("Exception in sending email", e);
         }
     }
 
+    @Override
+    public void close() {
+        transportPool.close();
+    }
+
+    private InternetAddress[] getRecipients(String to) throws AddressException {
+        InternetAddress[] addresses = recipients.get(to);
+        if (addresses == null) {
+            addresses = InternetAddress.parse(to);
+            recipients.put(to, addresses);
+        }
+        return addresses;
+    }
+
 }
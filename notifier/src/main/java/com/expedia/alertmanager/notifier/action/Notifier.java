@@ -16,8 +16,19 @@
 package com.expedia.alertmanager.notifier.action;
 
 import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
 
+/**
+ * Sends alerts to a channel. Implementations are shared across dispatches and must be thread-safe,
+ * the dispatcher of each call carries the endpoint to notify.
+ */
 public interface Notifier {
 
-    void notify(Alert alert);
+    void notify(Alert alert, Dispatcher dispatcher);
+
+    /**
+     * Releases the resources held by the notifier, called on shutdown.
+     */
+    default void close() {
+    }
 }
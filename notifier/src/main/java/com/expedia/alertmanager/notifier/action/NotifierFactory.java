@@ -15,12 +15,22 @@
  */
 package com.expedia.alertmanager.notifier.action;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceAsync;
+import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceAsyncClientBuilder;
 import com.expedia.alertmanager.model.Dispatcher;
 import com.expedia.alertmanager.notifier.builder.MessageComposer;
 import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 @Component
 public class NotifierFactory {
@@ -31,25 +41,84 @@ public class NotifierFactory {
     @Autowired
     private MessageComposer messageComposer;
 
-    @Autowired
-    private RestTemplate restTemplate;
+    private Notifier emailNotifier;
+
+    private Notifier slackNotifier;
+
+    private AmazonSimpleEmailServiceAsync sesClient;
+
+    //notifiers are thread-safe and shared by all the dispatches of their type
+    @PostConstruct
+    public void init() {
+        if ("smtp".equalsIgnoreCase(applicationConfig.getMailType())) {
+            emailNotifier = new EmailNotifier(messageComposer, applicationConfig.getFromEmail(),
+                applicationConfig.getSmtpHost(), applicationConfig.getSmtpPort(),
+                applicationConfig.getSmtpUsername(), applicationConfig.getSmtpPassword(),
+                applicationConfig.isStartTlsEnabled(), applicationConfig.getRecipientsCacheSize(),
+                applicationConfig.getSmtpPoolMaxConnections(), applicationConfig.getSmtpPoolIdleTimeoutMs(),
+                applicationConfig.getSmtpPoolMaxMessagesPerConnection());
+        } else if ("aws-ses".equalsIgnoreCase(applicationConfig.getMailType())) {
+            sesClient = buildSesClient();
+            emailNotifier = new AwsSesNotifier(messageComposer, applicationConfig.getFromEmail(), sesClient,
+                applicationConfig.isSesAsync(), applicationConfig.getSesMaxRecipientsPerRequest(),
+                applicationConfig.getRecipientsCacheSize());
+        }
+        slackNotifier = new SlackNotifier(buildSlackClient(), messageComposer, applicationConfig.getSlackUrl(),
+            applicationConfig.getSlackToken(), applicationConfig.getSlackBatchWindowMs(),
+            applicationConfig.getSlackMaxBatchSize(), applicationConfig.getSlackMaxQueuedPerChannel(),
+            applicationConfig.getSlackMaxRetries());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (emailNotifier != null) {
+            emailNotifier.close();
+        }
+        slackNotifier.close();
+        if (sesClient != null) {
+            sesClient.shutdown();
+        }
+    }
+
+    //single SES client for the application, so credentials and connections are reused across emails.
+    private AmazonSimpleEmailServiceAsync buildSesClient() {
+        AmazonSimpleEmailServiceAsyncClientBuilder builder = AmazonSimpleEmailServiceAsyncClientBuilder.standard()
+            .withClientConfiguration(new ClientConfiguration()
+                .withMaxConnections(applicationConfig.getSesMaxConnections()));
+        if (StringUtils.isEmpty(applicationConfig.getSesEndpoint())) {
+            builder.withRegion(applicationConfig.getSesRegion());
+        } else {
+            builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(
+                applicationConfig.getSesEndpoint(), applicationConfig.getSesRegion()));
+        }
+        return builder.build();
+    }
+
+    //pooled non-blocking client, slack messages don't hold a dispatch thread while in flight.
+    private CloseableHttpAsyncClient buildSlackClient() {
+        int timeoutMs = applicationConfig.getSlackTimeoutMs();
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+            .setMaxConnTotal(applicationConfig.getSlackMaxConnections())
+            .setMaxConnPerRoute(applicationConfig.getSlackMaxConnections())
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(timeoutMs)
+                .setConnectionRequestTimeout(timeoutMs)
+                .setSocketTimeout(timeoutMs)
+                .build())
+            .build();
+        client.start();
+        return client;
+    }
 
     public Notifier getNotifier(Dispatcher dispatcher) {
         switch (dispatcher.getType()) {
             case EMAIL:
-                if("smtp".equalsIgnoreCase(applicationConfig.getMailType())) {
-                    return new EmailNotifier(messageComposer, applicationConfig.getFromEmail(), dispatcher.getEndpoint(),
-                            applicationConfig.getSmtpHost(), applicationConfig.getSmtpPort(),
-                            applicationConfig.getSmtpUsername(), applicationConfig.getSmtpPassword(),
-                            applicationConfig.isStartTlsEnabled());
-                } else if ("aws-ses".equalsIgnoreCase(applicationConfig.getMailType())) {
-                    return new AwsSesNotifier(messageComposer, applicationConfig.getFromEmail(), dispatcher);
-                } else {
+                if (emailNotifier == null) {
                     throw new RuntimeException("Email type:" + applicationConfig.getMailType() + "is not supported");
                 }
+                return emailNotifier;
             case SLACK:
-                return new SlackNotifier(restTemplate, messageComposer, applicationConfig.getSlackUrl(),
-                    applicationConfig.getSlackToken(), dispatcher.getEndpoint());
+                return slackNotifier;
             default:
                 throw new RuntimeException("Dispatcher type:" + dispatcher.getType() + "is not supported");
         }
@@ -16,55 +16,302 @@
 package com.expedia.alertmanager.notifier.action;
 
 import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
 import com.expedia.alertmanager.notifier.builder.MessageComposer;
 import com.expedia.alertmanager.notifier.model.SlackMessage;
 import com.google.gson.Gson;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Posts alerts to Slack channels. Alerts are queued per channel and the alerts received within the batch window
+ * are posted as a single message, one attachment per alert. Messages are sent with a non-blocking HTTP client,
+ * a channel has at most one message in flight and a throttled message is retried once Slack's Retry-After delay
+ * has passed, holding back the other alerts of the channel.
+ * {@link #notify} only queues the alert, so the dispatch completes, and the offset of the alert can be committed,
+ * before the alert is posted. Queued alerts are lost if the instance crashes within the batch window, and alerts
+ * beyond max-queued-per-channel are dropped while Slack can't keep up.
+ */
 @Slf4j
 public class SlackNotifier implements Notifier {
 
     private static final Gson gson = new Gson();
-    private final RestTemplate restTemplate;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final long DEFAULT_RETRY_AFTER_MS = 1000;
+    private static final long CLOSE_TIMEOUT_MS = 10000;
+    private final CloseableHttpAsyncClient httpClient;
     private final String url;
     private final String token;
-    private final String channel;
+    private final long batchWindowMs;
+    private final int maxBatchSize;
+    private final int maxQueuedPerChannel;
+    private final int maxRetries;
+    private final ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("slack-sender-"));
+    private final Map<String, ChannelSender> senders = new ConcurrentHashMap<>();
     private MessageComposer messageComposer;
 
-    public SlackNotifier(RestTemplate restTemplate, MessageComposer messageComposer,
-                         String url, String token, String channel) {
-        this.restTemplate = restTemplate;
+    public SlackNotifier(CloseableHttpAsyncClient httpClient, MessageComposer messageComposer,
+                         String url, String token, long batchWindowMs, int maxBatchSize,
+                         int maxQueuedPerChannel, int maxRetries) {
+        this.httpClient = httpClient;
         this.messageComposer = messageComposer;
         this.url = url;
         this.token = token;
-        this.channel = channel;
+        this.batchWindowMs = batchWindowMs;
+        this.maxBatchSize = maxBatchSize;
+        this.maxQueuedPerChannel = maxQueuedPerChannel;
+        this.maxRetries = maxRetries;
+        //the queued alerts are posted by close, the pending batch windows don't need to run after shutdown
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
     }
 
     @Override
-    public void notify(Alert alert) {
-        //TODO - we need to parameterize the template
-        SlackMessage slackMessage = new SlackMessage(channel,
-            messageComposer.buildContent(alert, "slack-message-template.ftl"));
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(token);
-        HttpEntity<String> entity = new HttpEntity<>(gson.toJson(slackMessage), headers);
+    public void notify(Alert alert, Dispatcher dispatcher) {
+        senders.computeIfAbsent(dispatcher.getEndpoint(), ChannelSender::new).add(alert);
+    }
+
+    /**
+     * Stops the scheduler, then posts the queued alerts of each channel without waiting for their batch window,
+     * after the message in flight and one message at a time, before closing the HTTP client.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.shutdownNow();
+        }
+        senders.values().forEach(ChannelSender::sendAll);
         try {
-            ResponseEntity responseEntity =
-                restTemplate.exchange(url, HttpMethod.POST, entity, SlackResponse.class);
-            if (!responseEntity.getStatusCode().is2xxSuccessful()) {
-                log.error("Slack notify failed");
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("Closing Slack HTTP client failed", e);
+        }
+    }
+
+    SlackMessage buildMessage(String channel, List<Alert> alerts) {
+        //TODO - we need to parameterize the template
+        if (alerts.size() == 1) {
+            return new SlackMessage(channel, messageComposer.buildContent(alerts.get(0),
+                MessageComposer.SLACK_TEMPLATE));
+        }
+        List<SlackMessage.Attachment> attachments = new ArrayList<>(alerts.size());
+        alerts.forEach(alert -> attachments.add(new SlackMessage.Attachment(
+            messageComposer.buildContent(alert, MessageComposer.SLACK_TEMPLATE))));
+        return new SlackMessage(channel, "You have " + alerts.size() + " alerts.", attachments);
+    }
+
+    private static long getRetryAfterMs(HttpResponse response) {
+        Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.getValue().trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid Retry-After header '{}'", retryAfter.getValue());
+            }
+        }
+        return DEFAULT_RETRY_AFTER_MS;
+    }
+
+    /**
+     * Queue of the alerts of a channel. The scheduled flag is set while a flush is scheduled or a message is in
+     * flight, so messages to a channel are posted one at a time and in order.
+     */
+    private final class ChannelSender {
+        private final String channel;
+        private final Deque<Alert> queue = new ArrayDeque<>();
+        private boolean scheduled;
+        private int retries;
+        //completed once the message in flight is handled
+        private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+
+        private ChannelSender(String channel) {
+            this.channel = channel;
+        }
+
+        private synchronized void add(Alert alert) {
+            if (queue.size() >= maxQueuedPerChannel) {
+                log.error("Dropping alert='{}' as {} alerts are already queued for channel {}",
+                    alert, queue.size(), channel);
+                return;
+            }
+            queue.add(alert);
+            if (!scheduled) {
+                scheduled = true;
+                schedule(batchWindowMs);
+            }
+        }
+
+        private void flush() {
+            List<Alert> batch = nextBatch();
+            if (batch.isEmpty()) {
+                return;
+            }
+            CompletableFuture<Void> sent = new CompletableFuture<>();
+            setInFlight(sent);
+            try {
+                send(batch, sent);
+            } catch (RuntimeException e) {
+                log.error("Slack invocation failed", e);
+                onDone();
+                sent.complete(null);
+            }
+        }
+
+        private synchronized void setInFlight(CompletableFuture<Void> sent) {
+            inFlight = sent;
+        }
+
+        private synchronized CompletableFuture<Void> getInFlight() {
+            return inFlight;
+        }
+
+        private synchronized List<Alert> nextBatch() {
+            List<Alert> batch = new ArrayList<>(Math.min(queue.size(), maxBatchSize));
+            while (!queue.isEmpty() && batch.size() < maxBatchSize) {
+                batch.add(queue.poll());
+            }
+            if (batch.isEmpty()) {
+                scheduled = false;
+            }
+            return batch;
+        }
+
+        /**
+         * Posts the queued alerts once the scheduler is stopped, after the message in flight and one message at a
+         * time so that they keep their order.
+         */
+        private void sendAll() {
+            try {
+                getInFlight().get(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                List<Alert> batch;
+                while (!(batch = nextBatch()).isEmpty()) {
+                    HttpResponse response = post(batch, null).get(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    logFailure(response);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Slack messages to channel {} not sent before close", channel, e);
+            } catch (ExecutionException | TimeoutException | RuntimeException e) {
+                log.error("Slack messages to channel {} not sent before close", channel, e);
+            }
+        }
+
+        private void send(List<Alert> batch, CompletableFuture<Void> sent) {
+            post(batch, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    onResponse(batch, response);
+                    sent.complete(null);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    log.error("Slack invocation failed", e);
+                    onDone();
+                    sent.complete(null);
+                }
+
+                @Override
+                public void cancelled() {
+                    onDone();
+                    sent.complete(null);
+                }
+            });
+        }
+
+        private Future<HttpResponse> post(List<Alert> batch, FutureCallback<HttpResponse> callback) {
+            HttpPost request = new HttpPost(url);
+            request.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+            request.setEntity(new StringEntity(gson.toJson(buildMessage(channel, batch)),
+                ContentType.APPLICATION_JSON));
+            return httpClient.execute(request, callback);
+        }
+
+        private void onResponse(List<Alert> batch, HttpResponse response) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == TOO_MANY_REQUESTS) {
+                onThrottled(batch, getRetryAfterMs(response));
+                return;
+            }
+            logFailure(response);
+            onDone();
+        }
+
+        private void logFailure(HttpResponse response) {
+            int status = response.getStatusLine().getStatusCode();
+            try {
+                if (status / 100 != 2) {
+                    log.error("Slack notify to channel {} failed with status {}", channel, status);
+                } else if (response.getEntity() != null) {
+                    SlackResponse slackResponse =
+                        gson.fromJson(EntityUtils.toString(response.getEntity()), SlackResponse.class);
+                    if (slackResponse != null && !"true".equals(slackResponse.getOk())) {
+                        log.error("Slack notify failed with error {}", slackResponse.getError());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("Reading Slack response failed", e);
+            }
+        }
+
+        private synchronized void onThrottled(List<Alert> batch, long retryAfterMs) {
+            if (++retries > maxRetries) {
+                log.error("Dropping {} alerts to channel {} as Slack is still throttling after {} retries",
+                    batch.size(), channel, maxRetries);
+                retries = 0;
+                schedule(retryAfterMs);
+                return;
+            }
+            log.warn("Slack throttled channel {}, retrying in {} ms", channel, retryAfterMs);
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                queue.addFirst(batch.get(i));
+            }
+            schedule(retryAfterMs);
+        }
+
+        private synchronized void onDone() {
+            retries = 0;
+            if (queue.isEmpty()) {
+                scheduled = false;
+            } else {
+                schedule(0);
+            }
+        }
+
+        private void schedule(long delayMs) {
+            if (!scheduler.isShutdown()) {
+                scheduler.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
             }
-        } catch (HttpClientErrorException ex) {
-            log.error("Slack invocation failed", ex);
         }
     }
 
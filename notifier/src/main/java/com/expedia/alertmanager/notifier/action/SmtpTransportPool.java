@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.action;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pool of connected and authenticated SMTP transports, so that emails don't pay for connect, STARTTLS and AUTH
+ * on every send. A connection is reused for up to maxMessagesPerConnection messages, and it is closed instead of
+ * being reused when a send fails or when it has been idle for longer than idleTimeoutMs.
+ */
+@Slf4j
+public class SmtpTransportPool {
+
+    private final Session session;
+    private final int maxMessagesPerConnection;
+    private final long idleTimeoutMs;
+    private final Semaphore permits;
+    private final BlockingQueue<PooledTransport> idleTransports = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    public SmtpTransportPool(Session session, int maxConnections, long idleTimeoutMs, int maxMessagesPerConnection) {
+        this.session = session;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Sends the message over a pooled connection, waiting for one to be free when all of them are in use.
+     * A pooled connection may have been dropped by the server while idle, so when a send over a reused connection
+     * fails, the message is sent once more over a new connection.
+     * @param message message to send
+     * @throws MessagingException if the message couldn't be sent
+     */
+    public void send(Message message) throws MessagingException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+        }
+        try {
+            message.saveChanges();
+            PooledTransport pooledTransport = borrow();
+            try {
+                send(pooledTransport, message);
+            } catch (SendFailedException e) {
+                //the message itself was rejected, a new connection won't help
+                throw e;
+            } catch (MessagingException e) {
+                if (pooledTransport.sentMessages == 0) {
+                    throw e;
+                }
+                log.warn("Sending over a pooled SMTP connection failed, retrying over a new connection", e);
+                send(connect(), message);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void send(PooledTransport pooledTransport, Message message) throws MessagingException {
+        boolean reusable = false;
+        try {
+            pooledTransport.transport.sendMessage(message, message.getAllRecipients());
+            pooledTransport.sentMessages++;
+            reusable = true;
+        } finally {
+            release(pooledTransport, reusable);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        PooledTransport pooledTransport;
+        while ((pooledTransport = idleTransports.poll()) != null) {
+            closeQuietly(pooledTransport);
+        }
+    }
+
+    protected Transport createTransport() throws MessagingException {
+        return session.getTransport();
+    }
+
+    private PooledTransport borrow() throws MessagingException {
+        PooledTransport pooledTransport;
+        while ((pooledTransport = idleTransports.poll()) != null) {
+            if (System.currentTimeMillis() - pooledTransport.lastUsedTime <= idleTimeoutMs
+                && pooledTransport.transport.isConnected()) {
+                return pooledTransport;
+            }
+            closeQuietly(pooledTransport);
+        }
+        return connect();
+    }
+
+    private PooledTransport connect() throws MessagingException {
+        Transport transport = createTransport();
+        transport.connect();
+        return new PooledTransport(transport);
+    }
+
+    private void release(PooledTransport pooledTransport, boolean reusable) {
+        if (reusable && !closed && pooledTransport.sentMessages < maxMessagesPerConnection) {
+            pooledTransport.lastUsedTime = System.currentTimeMillis();
+            idleTransports.offer(pooledTransport);
+        } else {
+            closeQuietly(pooledTransport);
+        }
+    }
+
+    private void closeQuietly(PooledTransport pooledTransport) {
+        try {
+            pooledTransport.transport.close();
+        } catch (MessagingException e) {
+            log.warn("Closing SMTP connection failed", e);
+        }
+    }
+
+    private static class PooledTransport {
+        private final Transport transport;
+        private int sentMessages;
+        private long lastUsedTime;
+
+        private PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+    }
+}
@@ -16,36 +16,143 @@
 package com.expedia.alertmanager.notifier.builder;
 
 import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import com.expedia.alertmanager.notifier.util.LruCache;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
-import org.springframework.ui.freemarker.FreeMarkerTemplateUtils;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Renders alerts with FreeMarker templates. Templates are compiled once and kept in a registry, and rendered
+ * content is cached per alert and template so an alert notified to many subscribers is rendered only once.
+ */
 @Component
 @Slf4j
 public class MessageComposer {
 
+    public static final String EMAIL_TEMPLATE = "email-template.ftl";
+    public static final String SLACK_TEMPLATE = "slack-message-template.ftl";
+    private static final List<String> TEMPLATES = Arrays.asList(EMAIL_TEMPLATE, SLACK_TEMPLATE);
+    //rendered messages are small, the buffer of a thread is dropped instead of reused if it grows beyond this
+    private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+
+    private final Configuration freemarkerConfig;
+    private final Map<String, Template> templates = new ConcurrentHashMap<>();
+    private final LruCache<RenderKey, String> renderedContents;
+    private final ThreadLocal<StringWriter> writers = ThreadLocal.withInitial(() -> new StringWriter(4096));
+
     @Autowired
-    @Qualifier("freemarkerConfig")
-    private Configuration freemarkerConfig;
+    public MessageComposer(@Qualifier("freemarkerConfig") Configuration freemarkerConfig,
+                           ApplicationConfig applicationConfig) {
+        this.freemarkerConfig = freemarkerConfig;
+        this.renderedContents = new LruCache<>(applicationConfig.getRenderedContentCacheSize());
+    }
+
+    @PostConstruct
+    public void loadTemplates() {
+        TEMPLATES.forEach(this::getTemplate);
+        log.info("Loaded message templates {}", templates.keySet());
+    }
 
     public String buildContent(Alert alert, String templateName) {
+        RenderKey key = new RenderKey(alert, templateName);
+        String content = renderedContents.get(key);
+        if (content == null) {
+            content = render(alert, getTemplate(templateName));
+            renderedContents.put(key, content);
+        }
+        return content;
+    }
+
+    private String render(Alert alert, Template template) {
+        StringWriter writer = writers.get();
+        writer.getBuffer().setLength(0);
         try {
-            Template template = freemarkerConfig.getTemplate(templateName);
-            Map<String, Object> input = new HashMap();
-            input.put( "alert", alert );
-            return FreeMarkerTemplateUtils.processTemplateIntoString(template, input);
+            template.process(Collections.singletonMap("alert", alert), writer);
+            return writer.toString();
         } catch (Exception e) {
             log.error("Exception generating content", e);
             throw new RuntimeException(e);
+        } finally {
+            if (writer.getBuffer().capacity() > MAX_REUSED_BUFFER_SIZE) {
+                writers.remove();
+            }
         }
     }
 
+    private Template getTemplate(String templateName) {
+        return templates.computeIfAbsent(templateName, name -> {
+            try {
+                return freemarkerConfig.getTemplate(name);
+            } catch (IOException e) {
+                log.error("Exception loading template " + name, e);
+                throw new RuntimeException(e);
+            }
+        });
+    }
 
+    /**
+     * Snapshot of the rendered fields of an alert, so that an alert changed after being rendered can't be
+     * served the content cached for its previous values.
+     */
+    private static final class RenderKey {
+        private final String templateName;
+        private final String name;
+        private final Map<String, String> labels;
+        private final Map<String, String> annotations;
+        private final long creationTime;
+        private final String generatorURL;
+        private final int hashCode;
+
+        private RenderKey(Alert alert, String templateName) {
+            this.templateName = templateName;
+            this.name = alert.getName();
+            this.labels = copy(alert.getLabels());
+            this.annotations = copy(alert.getAnnotations());
+            this.creationTime = alert.getCreationTime();
+            this.generatorURL = alert.getGeneratorURL();
+            this.hashCode = Objects.hash(templateName, name, labels, annotations, creationTime, generatorURL);
+        }
+
+        private static Map<String, String> copy(Map<String, String> map) {
+            return map == null ? null : Collections.unmodifiableMap(new HashMap<>(map));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RenderKey)) {
+                return false;
+            }
+            RenderKey other = (RenderKey) o;
+            return hashCode == other.hashCode
+                && creationTime == other.creationTime
+                && templateName.equals(other.templateName)
+                && Objects.equals(name, other.name)
+                && Objects.equals(labels, other.labels)
+                && Objects.equals(annotations, other.annotations)
+                && Objects.equals(generatorURL, other.generatorURL);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
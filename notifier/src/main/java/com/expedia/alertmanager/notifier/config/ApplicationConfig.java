@@ -16,7 +16,17 @@
 package com.expedia.alertmanager.notifier.config;
 
 import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
+import com.expedia.alertmanager.model.SubscriptionChangeEvent;
+import com.expedia.alertmanager.notifier.service.RateLimitService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Getter;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.springframework.beans.factory.annotation.Value;
@@ -25,11 +35,17 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.ui.freemarker.FreeMarkerConfigurationFactoryBean;
+import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class ApplicationConfig {
@@ -46,6 +62,13 @@ public class ApplicationConfig {
     private String heartBeatInterval;
     @Value("${kafka.consumer.request.timeout.ms}")
     private String reqTimeout;
+    @Value("${kafka.consumer.max.poll.records:500}")
+    private String maxPollRecords;
+    @Value("${kafka.consumer.concurrency:1}")
+    private int concurrency;
+    @Value("${kafka.topic}")
+    @Getter
+    private String topic;
 
     /**
      * Kafka Configs.
@@ -63,18 +86,102 @@ public class ApplicationConfig {
         properties.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, this.sessionTimeout);
         properties.put(ConsumerConfig.HEARTBEAT_INTERVAL_MS_CONFIG, this.heartBeatInterval);
         properties.put(ConsumerConfig.REQUEST_TIMEOUT_MS_CONFIG, this.reqTimeout);
+        properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, this.maxPollRecords);
         return properties;
     }
 
+    @Value("${http-client.max-connections:100}")
+    private int httpMaxConnections;
+
+    @Value("${http-client.max-connections-per-route:50}")
+    private int httpMaxConnectionsPerRoute;
+
+    @Value("${http-client.connect-timeout-ms:2000}")
+    private int httpConnectTimeoutMs;
+
+    @Value("${http-client.read-timeout-ms:10000}")
+    private int httpReadTimeoutMs;
+
+    @Value("${http-client.connection-request-timeout-ms:2000}")
+    private int httpConnectionRequestTimeoutMs;
+
+    //idle time a connection is kept alive for when the server doesn't send a keep-alive timeout
+    @Value("${http-client.keep-alive-ms:30000}")
+    private long httpKeepAliveMs;
+
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(CloseableHttpClient httpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient(MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(httpMaxConnections);
+        connectionManager.setDefaultMaxPerRoute(httpMaxConnectionsPerRoute);
+        bindConnectionPoolMetrics(connectionManager, meterRegistry);
+        return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(httpConnectTimeoutMs)
+                .setSocketTimeout(httpReadTimeoutMs)
+                .setConnectionRequestTimeout(httpConnectionRequestTimeoutMs)
+                .build())
+            .setKeepAliveStrategy((response, context) -> {
+                long keepAliveMs = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return keepAliveMs > 0 ? keepAliveMs : httpKeepAliveMs;
+            })
+            .evictExpiredConnections()
+            .evictIdleConnections(httpKeepAliveMs, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    private void bindConnectionPoolMetrics(PoolingHttpClientConnectionManager connectionManager,
+                                           MeterRegistry meterRegistry) {
+        Gauge.builder("http.client.connections", connectionManager, pool -> pool.getTotalStats().getLeased())
+            .tag("state", "leased").register(meterRegistry);
+        Gauge.builder("http.client.connections", connectionManager, pool -> pool.getTotalStats().getAvailable())
+            .tag("state", "available").register(meterRegistry);
+        Gauge.builder("http.client.connections", connectionManager, pool -> pool.getTotalStats().getPending())
+            .tag("state", "pending").register(meterRegistry);
+        Gauge.builder("http.client.connections", connectionManager, pool -> pool.getTotalStats().getMax())
+            .tag("state", "max").register(meterRegistry);
     }
 
     @Value("${subscription-search.url}")
     @Getter
     private String subscriptionSerUrl;
 
+    //batch match endpoint of subscription service, alerts are matched one by one with search url when not set
+    @Value("${subscription-search.batch-url:}")
+    @Getter
+    private String subscriptionBatchMatchUrl;
+
+    @Value("${subscription-index.enabled:false}")
+    @Getter
+    private boolean subscriptionIndexEnabled;
+
+    @Value("${subscription-index.url:}")
+    @Getter
+    private String subscriptionIndexUrl;
+
+    @Value("${subscription-index.max-staleness-ms:300000}")
+    @Getter
+    private long subscriptionIndexMaxStalenessMs;
+
+    //caches the matching subscriptions of alert labels
+    @Value("${subscription-cache.enabled:false}")
+    @Getter
+    private boolean subscriptionCacheEnabled;
+
+    @Value("${subscription-cache.max-size:10000}")
+    @Getter
+    private int subscriptionCacheMaxSize;
+
+    @Value("${subscription-cache.ttl-ms:60000}")
+    @Getter
+    private long subscriptionCacheTtlMs;
+
     @Bean
     public ConsumerFactory<String, Alert> consumerFactory() {
         return new DefaultKafkaConsumerFactory(getKafkaConsumerConfig(), new StringDeserializer(),
@@ -82,13 +189,62 @@ public class ApplicationConfig {
     }
 
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, Alert> kafkaListenerContainerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, Alert> kafkaListenerContainerFactory(
+        RateLimitService rateLimitService) {
         ConcurrentKafkaListenerContainerFactory<String, Alert> factory =
             new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
+        //alerts returned by a poll are matched and dispatched together.
+        factory.setBatchListener(true);
+        //number of consumers, each container consumer gets its own share of the topic partitions.
+        factory.setConcurrency(concurrency);
+        //partition assignments decide the share of the alert rate limit of this instance.
+        factory.getContainerProperties().setConsumerRebalanceListener(rateLimitService);
         return factory;
     }
 
+    @Value("${subscription-changes.group-id-prefix:am_notifier_subscriptions}")
+    private String subscriptionChangesGroupIdPrefix;
+
+    @Value("${subscription-changes.instance-id:}")
+    private String subscriptionChangesInstanceId;
+
+    /**
+     * Every notifier instance keeps its own subscription index, so each one consumes all the subscription changes
+     * with a group of its own, named after the configured instance id or the host name when none is set.
+     * The group never commits its offsets: the consumer always starts from the latest changes, as the ones before
+     * are covered by the reload of the index, and the group is removed by kafka as soon as the instance leaves it
+     * instead of being left behind when the instance is replaced under a new name.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, SubscriptionChangeEvent>
+        subscriptionChangeListenerContainerFactory() {
+        Properties properties = getKafkaConsumerConfig();
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, subscriptionChangesGroupIdPrefix + "-" + getInstanceId());
+        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        ConcurrentKafkaListenerContainerFactory<String, SubscriptionChangeEvent> factory =
+            new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory(properties, new StringDeserializer(),
+            new JsonDeserializer<>(SubscriptionChangeEvent.class)));
+        factory.setBatchListener(true);
+        //the listener never acknowledges, so no offsets are committed
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
+    private String getInstanceId() {
+        if (!StringUtils.isEmpty(subscriptionChangesInstanceId)) {
+            return subscriptionChangesInstanceId;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Host name needed to name the subscription changes group, "
+                + "set subscription-changes.instance-id instead", e);
+        }
+    }
+
     @Value("${mail.from}")
     @Getter
     private String fromEmail;
@@ -97,6 +253,34 @@ public class ApplicationConfig {
     @Getter
     private String mailType;
 
+    //max number of distinct email endpoints whose parsed recipients are kept
+    @Value("${mail.recipients-cache-size:1000}")
+    @Getter
+    private int recipientsCacheSize;
+
+    @Value("${aws-ses.region:us-west-2}")
+    @Getter
+    private String sesRegion;
+
+    //overrides the regional SES endpoint, e.g. to point at a local SES stand-in
+    @Value("${aws-ses.endpoint:}")
+    @Getter
+    private String sesEndpoint;
+
+    @Value("${aws-ses.max-connections:50}")
+    @Getter
+    private int sesMaxConnections;
+
+    //send the recipient chunks of an email concurrently with the async client
+    @Value("${aws-ses.async:false}")
+    @Getter
+    private boolean sesAsync;
+
+    //SES accepts at most 50 destinations per message
+    @Value("${aws-ses.max-recipients-per-request:50}")
+    @Getter
+    private int sesMaxRecipientsPerRequest;
+
     @Value("${smtp.host}")
     @Getter
     private String smtpHost;
@@ -117,6 +301,23 @@ public class ApplicationConfig {
     @Getter
     private boolean startTlsEnabled;
 
+    @Value("${smtp.pool.max-connections:8}")
+    @Getter
+    private int smtpPoolMaxConnections;
+
+    @Value("${smtp.pool.idle-timeout-ms:30000}")
+    @Getter
+    private long smtpPoolIdleTimeoutMs;
+
+    @Value("${smtp.pool.max-messages-per-connection:100}")
+    @Getter
+    private int smtpPoolMaxMessagesPerConnection;
+
+    //max number of rendered messages kept, an alert notified to many subscribers is rendered once per template
+    @Value("${message.rendered-content-cache-size:1000}")
+    @Getter
+    private int renderedContentCacheSize;
+
     @Bean("freemarkerConfig")
     public FreeMarkerConfigurationFactoryBean getFreeMarkerConfiguration() {
         FreeMarkerConfigurationFactoryBean bean = new FreeMarkerConfigurationFactoryBean();
@@ -132,15 +333,131 @@ public class ApplicationConfig {
     @Getter
     private String slackToken;
 
+    //alerts to a channel received within the window are posted as one message
+    @Value("${slack.batch-window-ms:1000}")
+    @Getter
+    private long slackBatchWindowMs;
+
+    @Value("${slack.max-batch-size:20}")
+    @Getter
+    private int slackMaxBatchSize;
+
+    //alerts queued for a channel beyond this are dropped
+    @Value("${slack.max-queued-per-channel:1000}")
+    @Getter
+    private int slackMaxQueuedPerChannel;
+
+    //times a throttled message is retried after the Retry-After delay before it is dropped
+    @Value("${slack.max-retries:3}")
+    @Getter
+    private int slackMaxRetries;
+
+    @Value("${slack.max-connections:20}")
+    @Getter
+    private int slackMaxConnections;
+
+    @Value("${slack.timeout-ms:10000}")
+    @Getter
+    private int slackTimeoutMs;
+
     @Value("${alert.rate-limit.enabled:false}")
     @Getter
     private boolean rateLimitEnabled;
 
+    //max alerts notified in the rate limit window
     @Value("${alert.rate-limit.value:0}")
     @Getter
     private long rateLimit;
 
+    @Value("${alert.rate-limit.window-ms:86400000}")
+    @Getter
+    private long rateLimitWindowMs;
+
+    @Value("${alert.rate-limit.window-buckets:60}")
+    @Getter
+    private int rateLimitWindowBuckets;
+
+    //max notifications of a subscription in the rate limit window, not limited when 0
+    @Value("${alert.rate-limit.per-subscription:0}")
+    @Getter
+    private long rateLimitPerSubscription;
+
+    //max notifications to a dispatcher endpoint in the rate limit window, not limited when 0
+    @Value("${alert.rate-limit.per-endpoint:0}")
+    @Getter
+    private long rateLimitPerEndpoint;
+
+    //share the alert limit between notifier instances in proportion to the partitions they consume, so that it
+    //holds for the whole cluster; when disabled each instance applies the full limit on its own
+    @Value("${alert.rate-limit.partition-aware:true}")
+    @Getter
+    private boolean rateLimitPartitionAware;
+
+    //max subscriptions and endpoints tracked by the rate limits, the least recently notified are dropped first
+    @Value("${alert.rate-limit.max-tracked-keys:10000}")
+    @Getter
+    private int rateLimitMaxTrackedKeys;
+
+    //coalesces repeated alerts to a dispatcher into one notification per group
+    @Value("${alert.grouping.enabled:false}")
+    @Getter
+    private boolean groupingEnabled;
+
+    //time to wait for repeats of a new alert before its first notification
+    @Value("${alert.grouping.group-wait-ms:30000}")
+    @Getter
+    private long groupWaitMs;
+
+    //min time between notifications of a group whose alert content changed
+    @Value("${alert.grouping.group-interval-ms:300000}")
+    @Getter
+    private long groupIntervalMs;
+
+    //min time between notifications of a group whose alert is repeated unchanged
+    @Value("${alert.grouping.repeat-interval-ms:14400000}")
+    @Getter
+    private long repeatIntervalMs;
+
     @Value("${alert.expiry-time-in-sec:}")
     @Getter
     private Long expiryTimeInSec;
+
+    @Value("${dispatch.email.pool-size:8}")
+    private int emailDispatchPoolSize;
+
+    @Value("${dispatch.email.queue-size:1000}")
+    private int emailDispatchQueueSize;
+
+    @Value("${dispatch.slack.pool-size:4}")
+    private int slackDispatchPoolSize;
+
+    @Value("${dispatch.slack.queue-size:1000}")
+    private int slackDispatchQueueSize;
+
+    //max time a poll waits for its dispatches, keep it below kafka max.poll.interval.ms
+    @Value("${dispatch.await-timeout-ms:60000}")
+    @Getter
+    private long dispatchAwaitTimeoutMs;
+
+    public int getDispatchPoolSize(Dispatcher.Type type) {
+        switch (type) {
+            case EMAIL:
+                return emailDispatchPoolSize;
+            case SLACK:
+                return slackDispatchPoolSize;
+            default:
+                throw new RuntimeException("Dispatcher type:" + type + "is not supported");
+        }
+    }
+
+    public int getDispatchQueueSize(Dispatcher.Type type) {
+        switch (type) {
+            case EMAIL:
+                return emailDispatchQueueSize;
+            case SLACK:
+                return slackDispatchQueueSize;
+            default:
+                throw new RuntimeException("Dispatcher type:" + type + "is not supported");
+        }
+    }
 }
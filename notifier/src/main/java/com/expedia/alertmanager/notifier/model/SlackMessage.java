@@ -3,9 +3,22 @@ package com.expedia.alertmanager.notifier.model;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 @AllArgsConstructor
 public class SlackMessage {
     private String channel;
     private String text;
+    private List<Attachment> attachments;
+
+    public SlackMessage(String channel, String text) {
+        this(channel, text, null);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Attachment {
+        private String text;
+    }
 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
+import com.expedia.alertmanager.model.SubscriptionResponse;
+import com.expedia.alertmanager.notifier.action.Notifier;
+import com.expedia.alertmanager.notifier.action.NotifierFactory;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Coalesces repeated alerts before they are dispatched. Alerts with the same name and labels sent to the same
+ * dispatcher form a group, hashed by a 64 bit fingerprint of the alert, and each group is notified once
+ * with its latest alert and the number of occurrences it stands for. An alert is one occurrence of its group,
+ * however many of its matching subscriptions share the dispatcher.
+ * A new group is notified after group-wait, further occurrences are notified after group-interval when the
+ * alert content changed and after repeat-interval when it is repeated unchanged. Groups that have nothing
+ * pending and received no alert within repeat-interval are evicted.
+ * The rate limits are applied when a group is notified, so a group stands for one notification against the global
+ * limit, one of the subscriptions it was matched by and the limit of its endpoint.
+ * Groups are only kept in memory: the offsets of the grouped alerts are committed once they are added, so the
+ * pending notifications are sent on shutdown but are lost if the instance crashes before their group is due.
+ */
+@Component
+@Slf4j
+public class AlertGrouper {
+
+    public static final String OCCURRENCES_ANNOTATION = "occurrences";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final NotifierFactory notifierFactory;
+    private final DispatchService dispatchService;
+    private final ApplicationConfig applicationConfig;
+    private final RateLimitService rateLimitService;
+    private final ToLongFunction<Alert> fingerprint;
+    private final Map<GroupKey, Group> groups = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AlertGrouper(NotifierFactory notifierFactory, DispatchService dispatchService,
+                        ApplicationConfig applicationConfig, RateLimitService rateLimitService) {
+        this(notifierFactory, dispatchService, applicationConfig, rateLimitService, AlertGrouper::fingerprint);
+    }
+
+    AlertGrouper(NotifierFactory notifierFactory, DispatchService dispatchService,
+                 ApplicationConfig applicationConfig, RateLimitService rateLimitService,
+                 ToLongFunction<Alert> fingerprint) {
+        this.notifierFactory = notifierFactory;
+        this.dispatchService = dispatchService;
+        this.applicationConfig = applicationConfig;
+        this.rateLimitService = rateLimitService;
+        this.fingerprint = fingerprint;
+    }
+
+    public boolean isEnabled() {
+        return applicationConfig.isGroupingEnabled();
+    }
+
+    /**
+     * Adds an alert to the groups of the alert and of each dispatcher of its matching subscriptions, the
+     * notifications are sent once the groups are due.
+     * @param alert alert to notify
+     * @param subscriptions subscriptions matching the alert
+     */
+    public void add(Alert alert, List<SubscriptionResponse> subscriptions) {
+        add(alert, subscriptions, System.currentTimeMillis());
+    }
+
+    void add(Alert alert, List<SubscriptionResponse> subscriptions, long now) {
+        long alertFingerprint = fingerprint.applyAsLong(alert);
+        Map<String, String> labels = alert.getLabels() == null
+            ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(alert.getLabels()));
+        Set<GroupKey> addedKeys = new HashSet<>();
+        for (SubscriptionResponse subscription : subscriptions) {
+            for (Dispatcher dispatcher : subscription.getDispatchers()) {
+                GroupKey key = new GroupKey(alertFingerprint, alert.getName(), labels, dispatcher.getType(),
+                    dispatcher.getEndpoint());
+                //subscriptions sharing a dispatcher only add their subscription to the occurrence of the alert
+                boolean occurrence = addedKeys.add(key);
+                groups.compute(key, (k, group) -> {
+                    if (group == null) {
+                        group = new Group(dispatcher);
+                    }
+                    if (occurrence) {
+                        group.add(alert, subscription, now);
+                    } else {
+                        group.addSubscription(subscription);
+                    }
+                    return group;
+                });
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${alert.grouping.tick-ms:1000}")
+    public void flushDueGroups() {
+        if (isEnabled()) {
+            flush(System.currentTimeMillis(), false);
+        }
+    }
+
+    /**
+     * Sends the pending notifications of all the groups on shutdown, so coalesced alerts aren't lost.
+     */
+    @PreDestroy
+    public void shutdown() {
+        flush(System.currentTimeMillis(), true);
+    }
+
+    int size() {
+        return groups.size();
+    }
+
+    void flush(long now, boolean all) {
+        List<Notification> notifications = new ArrayList<>();
+        for (GroupKey key : groups.keySet()) {
+            groups.computeIfPresent(key, (k, group) -> {
+                if (group.isDue(now, all)) {
+                    notifications.add(group.flush(now));
+                    return group;
+                }
+                return group.isExpired(now) ? null : group;
+            });
+        }
+        for (Notification notification : notifications) {
+            if (!rateLimitService.tryAcquire(notification.alert, notification.subscriptions,
+                notification.dispatcher)) {
+                continue;
+            }
+            Dispatcher dispatcher = notification.dispatcher;
+            Alert alert = notification.alert;
+            Notifier notifier = notifierFactory.getNotifier(dispatcher);
+            dispatchService.dispatch(dispatcher.getType(), () -> notifier.notify(alert, dispatcher));
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the alert name and of its labels sorted by name.
+     */
+    static long fingerprint(Alert alert) {
+        long hash = hash(FNV_OFFSET_BASIS, alert.getName());
+        if (alert.getLabels() != null) {
+            for (Map.Entry<String, String> label : new TreeMap<>(alert.getLabels()).entrySet()) {
+                hash = hash(hash, label.getKey());
+                hash = hash(hash, label.getValue());
+            }
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xff;
+                hash *= FNV_PRIME;
+            }
+        }
+        //separator, so that ("ab", "c") and ("a", "bc") hash differently
+        hash ^= 0xff;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+
+    /**
+     * Group identity, the fingerprint is only used as hash so that alerts whose fingerprints collide aren't merged.
+     */
+    private static final class GroupKey {
+        private final long fingerprint;
+        private final String name;
+        private final Map<String, String> labels;
+        private final Dispatcher.Type type;
+        private final String endpoint;
+
+        private GroupKey(long fingerprint, String name, Map<String, String> labels, Dispatcher.Type type,
+                         String endpoint) {
+            this.fingerprint = fingerprint;
+            this.name = name;
+            this.labels = labels;
+            this.type = type;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey other = (GroupKey) o;
+            return fingerprint == other.fingerprint && type == other.type && Objects.equals(endpoint, other.endpoint)
+                && Objects.equals(name, other.name) && labels.equals(other.labels);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(fingerprint) * 31 + Objects.hash(type, endpoint);
+        }
+    }
+
+    private static final class Notification {
+        private final Alert alert;
+        private final Dispatcher dispatcher;
+        private final List<SubscriptionResponse> subscriptions;
+
+        private Notification(Alert alert, Dispatcher dispatcher, List<SubscriptionResponse> subscriptions) {
+            this.alert = alert;
+            this.dispatcher = dispatcher;
+            this.subscriptions = subscriptions;
+        }
+    }
+
+    /**
+     * State of a group, only accessed while holding the map entry through compute.
+     */
+    private final class Group {
+        private final Dispatcher dispatcher;
+        //subscriptions the pending occurrences were matched by, by id
+        private Map<String, SubscriptionResponse> subscriptions = new LinkedHashMap<>();
+        private Alert latest;
+        private Alert lastSent;
+        private long lastSentTime;
+        private long lastSeenTime;
+        private int pending;
+        //time the pending occurrences are due, 0 when nothing is pending
+        private long dueTime;
+
+        private Group(Dispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        private void add(Alert alert, SubscriptionResponse subscription, long now) {
+            latest = alert;
+            addSubscription(subscription);
+            lastSeenTime = now;
+            pending++;
+            long alertDueTime;
+            if (lastSent == null) {
+                alertDueTime = now + applicationConfig.getGroupWaitMs();
+            } else if (sameContent(lastSent, alert)) {
+                alertDueTime = lastSentTime + applicationConfig.getRepeatIntervalMs();
+            } else {
+                alertDueTime = lastSentTime + applicationConfig.getGroupIntervalMs();
+            }
+            dueTime = dueTime == 0 ? alertDueTime : Math.min(dueTime, alertDueTime);
+        }
+
+        private void addSubscription(SubscriptionResponse subscription) {
+            subscriptions.put(subscription.getId(), subscription);
+        }
+
+        private boolean isDue(long now, boolean all) {
+            return pending > 0 && (all || now >= dueTime);
+        }
+
+        private boolean isExpired(long now) {
+            return pending == 0 && now - lastSeenTime > applicationConfig.getRepeatIntervalMs();
+        }
+
+        private Notification flush(long now) {
+            Alert alert = pending > 1 ? withOccurrences(latest, pending) : latest;
+            Notification notification = new Notification(alert, dispatcher, new ArrayList<>(subscriptions.values()));
+            lastSent = latest;
+            lastSentTime = now;
+            pending = 0;
+            dueTime = 0;
+            subscriptions = new LinkedHashMap<>();
+            return notification;
+        }
+
+        private boolean sameContent(Alert sent, Alert alert) {
+            return Objects.equals(sent.getAnnotations(), alert.getAnnotations())
+                && Objects.equals(sent.getGeneratorURL(), alert.getGeneratorURL());
+        }
+
+        private Alert withOccurrences(Alert alert, int occurrences) {
+            Alert grouped = new Alert();
+            grouped.setName(alert.getName());
+            grouped.setLabels(alert.getLabels());
+            grouped.setCreationTime(alert.getCreationTime());
+            grouped.setGeneratorURL(alert.getGeneratorURL());
+            Map<String, String> annotations = alert.getAnnotations() == null
+                ? new HashMap<>() : new HashMap<>(alert.getAnnotations());
+            annotations.put(OCCURRENCES_ANNOTATION, String.valueOf(occurrences));
+            grouped.setAnnotations(annotations);
+            return grouped;
+        }
+    }
+}
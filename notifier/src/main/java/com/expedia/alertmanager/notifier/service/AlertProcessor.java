@@ -26,8 +26,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 @Slf4j
@@ -35,48 +38,84 @@ public class AlertProcessor {
 
     private final NotifierFactory notifierFactory;
     private final SubscriptionService subscriptionService;
-    private final AlertReadService alertsReadService;
+    private final RateLimitService rateLimitService;
     private final ApplicationConfig applicationConfig;
+    private final DispatchService dispatchService;
+    private final AlertGrouper alertGrouper;
 
     @Autowired
     public AlertProcessor(NotifierFactory notifierFactory,
                           SubscriptionService subscriptionService,
-                          AlertReadService alertsReadService,
-                          ApplicationConfig applicationConfig) {
+                          RateLimitService rateLimitService,
+                          ApplicationConfig applicationConfig,
+                          DispatchService dispatchService,
+                          AlertGrouper alertGrouper) {
         this.notifierFactory = notifierFactory;
         this.subscriptionService = subscriptionService;
-        this.alertsReadService = alertsReadService;
+        this.rateLimitService = rateLimitService;
         this.applicationConfig = applicationConfig;
+        this.dispatchService = dispatchService;
+        this.alertGrouper = alertGrouper;
     }
 
-    @KafkaListener(topics = "${kafka.topic}")
     public void receive(Alert alert) {
+        receive(Collections.singletonList(alert));
+    }
 
-        if (anExpiredAlert(alert.getCreationTime())) {
-            log.info("ignoring alert='{}' as it is not a recent one",
-                alert);
-            return;
+    /**
+     * Processes the alerts returned by a single poll. The recent alerts are matched against the subscriptions
+     * in one pass and the resulting notifications are dispatched together on the per channel worker pools.
+     * The method returns once the dispatches are done, so the offsets of the poll are committed after dispatch.
+     * A dispatch is done once the notifier returns: email is sent by then, but Slack alerts are only queued for
+     * their channel batch, so they are posted after the commit and are lost if the instance crashes before.
+     * When grouping is enabled the alerts are handed to the {@link AlertGrouper} instead, which applies the
+     * rate limits and sends them once their group is due; the offsets are then committed before the grouped alerts
+     * are notified.
+     * @param alerts alerts received in a poll
+     */
+    @KafkaListener(topics = "${kafka.topic}")
+    public void receive(List<Alert> alerts) {
+        List<Alert> recentAlerts = new ArrayList<>(alerts.size());
+        for (Alert alert : alerts) {
+            if (alert == null) {
+                continue;
+            }
+            if (anExpiredAlert(alert.getCreationTime())) {
+                log.info("ignoring alert='{}' as it is not a recent one",
+                    alert);
+                continue;
+            }
+            recentAlerts.add(alert);
         }
-
-        //default rate limiter to restrict notifications.
-        //only first n number of alerts received on a day are notified, rest are ignored.
-        if (applicationConfig.isRateLimitEnabled()
-            && alertsReadService.getAlertsCountForToday() >= applicationConfig.getRateLimit()) {
-            log.info("ignoring alert='{}' as rate limit {} reached",
-                alert, applicationConfig.getRateLimit());
+        if (recentAlerts.isEmpty()) {
             return;
         }
 
-        log.info("received alert='{}'", alert);
-        List<SubscriptionResponse> subscriptionResponses = getSubscriptions(alert);
-        log.info("Matching subscriptions='{}'", subscriptionResponses.toString());
-        subscriptionResponses.forEach(subscriptionResponse -> {
-            subscriptionResponse.getDispatchers().forEach(dispatcher -> {
-                log.info("Matching dispatchers='{}'", dispatcher);
-                Notifier notifier = getNotifier(dispatcher);
-                notifier.notify(alert);
-            });
-        });
+        log.info("received {} alerts", recentAlerts.size());
+        List<List<SubscriptionResponse>> subscriptionResponses = getSubscriptions(recentAlerts);
+        List<CompletableFuture<Void>> dispatches = new ArrayList<>();
+        for (int i = 0; i < recentAlerts.size(); i++) {
+            Alert alert = recentAlerts.get(i);
+            List<SubscriptionResponse> matches = subscriptionResponses.get(i);
+            log.info("alert='{}' matching subscriptions='{}'", alert, matches);
+            if (alertGrouper.isEnabled()) {
+                alertGrouper.add(alert, matches);
+                continue;
+            }
+            matches.forEach(subscriptionResponse ->
+                subscriptionResponse.getDispatchers().forEach(dispatcher -> {
+                    log.info("Matching dispatchers='{}'", dispatcher);
+                    //only the first n notifications in the rate limit window are sent, rest are ignored.
+                    if (!rateLimitService.tryAcquire(alert, Collections.singletonList(subscriptionResponse),
+                        dispatcher)) {
+                        return;
+                    }
+                    Notifier notifier = getNotifier(dispatcher);
+                    dispatches.add(dispatchService.dispatch(dispatcher.getType(),
+                        () -> notifier.notify(alert, dispatcher)));
+                }));
+        }
+        dispatchService.awaitCompletion(dispatches);
     }
 
     private boolean anExpiredAlert(long creationTime) {
@@ -90,7 +129,9 @@ public class AlertProcessor {
         return this.notifierFactory.getNotifier(dispatcher);
     }
 
-    private List<SubscriptionResponse> getSubscriptions(Alert alert) {
-        return subscriptionService.getSubscriptions(alert.getLabels());
+    private List<List<SubscriptionResponse>> getSubscriptions(List<Alert> alerts) {
+        List<Map<String, String>> labels = new ArrayList<>(alerts.size());
+        alerts.forEach(alert -> labels.add(alert.getLabels()));
+        return subscriptionService.getSubscriptions(labels);
     }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.Dispatcher;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs notifications on a bounded worker pool per dispatcher type, so a slow channel doesn't hold up the others.
+ * When the queue of a channel is full the notification is run on the calling (kafka listener) thread,
+ * which slows down consumption until the channel catches up.
+ */
+@Component
+@Slf4j
+public class DispatchService {
+
+    private final Map<Dispatcher.Type, ThreadPoolExecutor> executors = new EnumMap<>(Dispatcher.Type.class);
+    private final long awaitTimeoutMs;
+
+    @Autowired
+    public DispatchService(ApplicationConfig applicationConfig) {
+        for (Dispatcher.Type type : Dispatcher.Type.values()) {
+            int poolSize = applicationConfig.getDispatchPoolSize(type);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(applicationConfig.getDispatchQueueSize(type)),
+                new CustomizableThreadFactory("dispatch-" + type.name().toLowerCase() + "-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+            executors.put(type, executor);
+        }
+        this.awaitTimeoutMs = applicationConfig.getDispatchAwaitTimeoutMs();
+    }
+
+    /**
+     * Queues a notification on the worker pool of the dispatcher type.
+     * @param type dispatcher type
+     * @param notification notification to run
+     * @return future completed once the notification is done
+     */
+    public CompletableFuture<Void> dispatch(Dispatcher.Type type, Runnable notification) {
+        CompletableFuture<Void> future = CompletableFuture.runAsync(notification, executors.get(type));
+        future.whenComplete((result, e) -> {
+            if (e != null) {
+                log.error("Dispatch to {} failed", type, e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for the given dispatches to complete. Failed dispatches are logged and don't fail the wait.
+     * @param dispatches dispatches to wait for
+     */
+    public void awaitCompletion(List<CompletableFuture<Void>> dispatches) {
+        if (dispatches.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(dispatches.toArray(new CompletableFuture[0]))
+                .get(awaitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            //already logged by the failed dispatch
+        } catch (TimeoutException e) {
+            log.error("{} dispatches didn't complete in {} ms", dispatches.stream().filter(d -> !d.isDone()).count(),
+                awaitTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while waiting for dispatches", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        for (ThreadPoolExecutor executor : executors.values()) {
+            try {
+                if (!executor.awaitTermination(awaitTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
+import com.expedia.alertmanager.model.SubscriptionResponse;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import com.expedia.alertmanager.notifier.util.LruCache;
+import com.expedia.alertmanager.notifier.util.SlidingWindowRateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process rate limiting of notifications, with a global limit and optional limits per subscription and per
+ * dispatcher endpoint, each one over a sliding window. All the limits count notifications, an alert sent to one
+ * dispatcher, whether the alerts are notified at once or grouped.
+ * When partition aware, the default, the global limit is shared between the notifier instances in proportion to the
+ * alert topic partitions each instance consumes, so the instances don't need to coordinate through a store. Otherwise
+ * every instance applies the full limit and the cluster notifies up to the number of instances times the limit.
+ * The subscription and endpoint limits are always applied per instance. Their limiters are bounded to
+ * max-tracked-keys each, a dropped limiter starts again from an empty window.
+ */
+@Component
+@Slf4j
+public class RateLimitService implements ConsumerAwareRebalanceListener {
+
+    private final ApplicationConfig applicationConfig;
+    private final SlidingWindowRateLimiter alertLimiter;
+    private final LruCache<String, SlidingWindowRateLimiter> subscriptionLimiters;
+    private final LruCache<String, SlidingWindowRateLimiter> endpointLimiters;
+    private final Set<TopicPartition> assignedPartitions = ConcurrentHashMap.newKeySet();
+    private volatile int totalPartitions;
+
+    @Autowired
+    public RateLimitService(ApplicationConfig applicationConfig) {
+        this.applicationConfig = applicationConfig;
+        this.alertLimiter = newLimiter();
+        this.subscriptionLimiters = new LruCache<>(applicationConfig.getRateLimitMaxTrackedKeys());
+        this.endpointLimiters = new LruCache<>(applicationConfig.getRateLimitMaxTrackedKeys());
+    }
+
+    /**
+     * Takes the permits for notifying an alert to a dispatcher. The notification is sent if the global limit, one of
+     * the subscriptions it was matched by and its endpoint are all below their limits, the permits are only taken
+     * once all of them granted it so that a denied notification doesn't use up the limits that it passed.
+     * @param alert alert to notify
+     * @param subscriptions subscriptions the alert was matched by for this dispatcher
+     * @param dispatcher dispatcher to notify
+     * @return true if the notification can be sent
+     */
+    public boolean tryAcquire(Alert alert, Collection<SubscriptionResponse> subscriptions, Dispatcher dispatcher) {
+        if (!applicationConfig.isRateLimitEnabled()) {
+            return true;
+        }
+        long alertLimit = getAlertLimit();
+        if (!alertLimiter.hasPermit(alertLimit)) {
+            log.info("ignoring alert='{}' as rate limit {} reached", alert, alertLimit);
+            return false;
+        }
+        SlidingWindowRateLimiter subscriptionLimiter = null;
+        long subscriptionLimit = applicationConfig.getRateLimitPerSubscription();
+        if (subscriptionLimit > 0) {
+            //the notification is sent if any of its subscriptions is below its limit
+            for (SubscriptionResponse subscription : subscriptions) {
+                SlidingWindowRateLimiter limiter =
+                    subscriptionLimiters.computeIfAbsent(subscription.getId(), id -> newLimiter());
+                if (limiter.hasPermit(subscriptionLimit)) {
+                    subscriptionLimiter = limiter;
+                    break;
+                }
+            }
+            if (subscriptionLimiter == null) {
+                log.info("ignoring alert='{}' for dispatcher='{}' as the rate limit of its subscriptions is reached",
+                    alert, dispatcher);
+                return false;
+            }
+        }
+        SlidingWindowRateLimiter endpointLimiter = null;
+        long endpointLimit = applicationConfig.getRateLimitPerEndpoint();
+        if (endpointLimit > 0) {
+            endpointLimiter = endpointLimiters.computeIfAbsent(dispatcher.getType() + ":" + dispatcher.getEndpoint(),
+                endpoint -> newLimiter());
+            if (!endpointLimiter.hasPermit(endpointLimit)) {
+                log.info("ignoring alert='{}' for dispatcher='{}' as its rate limit is reached", alert, dispatcher);
+                return false;
+            }
+        }
+        alertLimiter.acquire();
+        if (subscriptionLimiter != null) {
+            subscriptionLimiter.acquire();
+        }
+        if (endpointLimiter != null) {
+            endpointLimiter.acquire();
+        }
+        return true;
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        assignedPartitions.addAll(partitions);
+        totalPartitions = consumer.partitionsFor(applicationConfig.getTopic()).size();
+        log.info("Rate limit share updated to {} of {} partitions", assignedPartitions.size(), totalPartitions);
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        assignedPartitions.removeAll(partitions);
+    }
+
+    private long getAlertLimit() {
+        long limit = applicationConfig.getRateLimit();
+        int total = totalPartitions;
+        if (!applicationConfig.isRateLimitPartitionAware() || total == 0) {
+            return limit;
+        }
+        return (long) Math.ceil((double) limit * assignedPartitions.size() / total);
+    }
+
+    private SlidingWindowRateLimiter newLimiter() {
+        return new SlidingWindowRateLimiter(applicationConfig.getRateLimitWindowMs(),
+            applicationConfig.getRateLimitWindowBuckets());
+    }
+}
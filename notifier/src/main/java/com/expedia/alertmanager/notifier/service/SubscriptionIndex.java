@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.Operand;
+import com.expedia.alertmanager.model.SubscriptionChangeEvent;
+import com.expedia.alertmanager.model.SubscriptionResponse;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable in-memory index of subscriptions used to match alert labels without calling the subscription service.
+ * Subscription expressions are an AND of label conditions, so the index keeps a posting list of subscriptions
+ * per label key/value and a subscription matches once every one of its conditions is hit by the alert labels.
+ * The index also keeps the version of the last change applied to each subscription, so that a change older than
+ * the one already applied is skipped.
+ */
+@Slf4j
+public class SubscriptionIndex {
+
+    private final Map<String, Map<String, int[]>> postings;
+    private final SubscriptionResponse[] subscriptions;
+    private final int[] requiredMatches;
+    private final Map<String, Long> versions;
+    @Getter
+    private final long createdTime;
+
+    private SubscriptionIndex(Map<String, Map<String, int[]>> postings,
+                              SubscriptionResponse[] subscriptions,
+                              int[] requiredMatches,
+                              Map<String, Long> versions,
+                              long createdTime) {
+        this.postings = postings;
+        this.subscriptions = subscriptions;
+        this.requiredMatches = requiredMatches;
+        this.versions = versions;
+        this.createdTime = createdTime;
+    }
+
+    public static SubscriptionIndex build(List<SubscriptionResponse> subscriptionResponses) {
+        return build(subscriptionResponses, Collections.emptyMap(), System.currentTimeMillis());
+    }
+
+    /**
+     * Returns this index with the change versions known by a previous index, for the subscriptions still in this
+     * one, so that changes older than the ones applied to the previous index are skipped after a reload.
+     * @param previous index replaced by this one, may be null
+     * @return index with the known versions
+     */
+    public SubscriptionIndex withVersionsOf(SubscriptionIndex previous) {
+        if (previous == null || previous.versions.isEmpty()) {
+            return this;
+        }
+        Map<String, Long> knownVersions = new HashMap<>();
+        for (SubscriptionResponse subscription : subscriptions) {
+            Long version = previous.versions.get(subscription.getId());
+            if (version != null) {
+                knownVersions.put(subscription.getId(), version);
+            }
+        }
+        return new SubscriptionIndex(postings, subscriptions, requiredMatches, knownVersions, createdTime);
+    }
+
+    /**
+     * Builds a new index with the given subscription changes applied to the subscriptions of this one.
+     * The new index keeps the creation time of this one, as it is only as fresh as the last full reload.
+     * A change whose version isn't higher than the last one applied to its subscription is skipped.
+     * @param events subscription changes, in the order they happened
+     * @return index with the changes applied
+     */
+    public SubscriptionIndex apply(List<SubscriptionChangeEvent> events) {
+        Map<String, SubscriptionResponse> subscriptionsById = new LinkedHashMap<>(subscriptions.length);
+        for (SubscriptionResponse subscription : subscriptions) {
+            subscriptionsById.put(subscription.getId(), subscription);
+        }
+        Map<String, Long> appliedVersions = new HashMap<>(versions);
+        for (SubscriptionChangeEvent event : events) {
+            Long appliedVersion = appliedVersions.get(event.getId());
+            if (appliedVersion != null && event.getVersion() <= appliedVersion) {
+                log.info("Skipping change of subscription id={} as its version {} isn't newer than {}",
+                    event.getId(), event.getVersion(), appliedVersion);
+                continue;
+            }
+            appliedVersions.put(event.getId(), event.getVersion());
+            if (event.getOperation() == SubscriptionChangeEvent.Operation.DELETE || event.getSubscription() == null) {
+                subscriptionsById.remove(event.getId());
+            } else {
+                subscriptionsById.put(event.getId(), event.getSubscription());
+            }
+        }
+        return build(new ArrayList<>(subscriptionsById.values()), appliedVersions, createdTime);
+    }
+
+    private static SubscriptionIndex build(List<SubscriptionResponse> subscriptionResponses,
+                                           Map<String, Long> versions, long createdTime) {
+        Map<String, Map<String, List<Integer>>> postingLists = new HashMap<>();
+        List<SubscriptionResponse> indexed = new ArrayList<>(subscriptionResponses.size());
+        List<Integer> required = new ArrayList<>(subscriptionResponses.size());
+        for (SubscriptionResponse subscription : subscriptionResponses) {
+            Set<Map.Entry<String, String>> conditions = getConditions(subscription);
+            if (conditions.isEmpty()) {
+                log.warn("Skipping subscription with id={} as it doesn't have any label conditions",
+                    subscription.getId());
+                continue;
+            }
+            int slot = indexed.size();
+            indexed.add(subscription);
+            required.add(conditions.size());
+            conditions.forEach(condition -> postingLists
+                .computeIfAbsent(condition.getKey(), key -> new HashMap<>())
+                .computeIfAbsent(condition.getValue(), value -> new ArrayList<>())
+                .add(slot));
+        }
+
+        Map<String, Map<String, int[]>> postings = new HashMap<>(postingLists.size());
+        postingLists.forEach((key, values) -> {
+            Map<String, int[]> valuePostings = new HashMap<>(values.size());
+            values.forEach((value, slots) -> valuePostings.put(value,
+                slots.stream().mapToInt(Integer::intValue).toArray()));
+            postings.put(key, valuePostings);
+        });
+        return new SubscriptionIndex(postings,
+            indexed.toArray(new SubscriptionResponse[0]),
+            required.stream().mapToInt(Integer::intValue).toArray(),
+            versions,
+            createdTime);
+    }
+
+    public int size() {
+        return subscriptions.length;
+    }
+
+    /**
+     * Finds the subscriptions whose conditions are all satisfied by the given labels.
+     * @param labels alert labels
+     * @return matching subscriptions
+     */
+    public List<SubscriptionResponse> match(Map<String, String> labels) {
+        if (labels == null || labels.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int[] hits = new int[8];
+        int hitCount = 0;
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            Map<String, int[]> valuePostings = postings.get(label.getKey());
+            if (valuePostings == null) {
+                continue;
+            }
+            int[] slots = valuePostings.get(label.getValue());
+            if (slots == null) {
+                continue;
+            }
+            if (hitCount + slots.length > hits.length) {
+                hits = Arrays.copyOf(hits, Math.max(hits.length * 2, hitCount + slots.length));
+            }
+            System.arraycopy(slots, 0, hits, hitCount, slots.length);
+            hitCount += slots.length;
+        }
+        if (hitCount == 0) {
+            return Collections.emptyList();
+        }
+
+        // each label key appears once in an alert, so a subscription slot is hit at most once per condition
+        // and it matches when the number of hits equals the number of its conditions.
+        Arrays.sort(hits, 0, hitCount);
+        List<SubscriptionResponse> matches = new ArrayList<>();
+        int runStart = 0;
+        for (int i = 1; i <= hitCount; i++) {
+            if (i == hitCount || hits[i] != hits[runStart]) {
+                int slot = hits[runStart];
+                if (i - runStart == requiredMatches[slot]) {
+                    matches.add(subscriptions[slot]);
+                }
+                runStart = i;
+            }
+        }
+        return matches;
+    }
+
+    private static Set<Map.Entry<String, String>> getConditions(SubscriptionResponse subscription) {
+        Set<Map.Entry<String, String>> conditions = new HashSet<>();
+        if (subscription.getExpression() == null || subscription.getExpression().getOperands() == null) {
+            return conditions;
+        }
+        for (Operand operand : subscription.getExpression().getOperands()) {
+            if (operand.getField() != null) {
+                conditions.add(new AbstractMap.SimpleImmutableEntry<>(operand.getField().getKey(),
+                    operand.getField().getValue()));
+            }
+        }
+        return conditions;
+    }
+}
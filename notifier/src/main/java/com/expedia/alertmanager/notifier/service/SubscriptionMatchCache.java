@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.SubscriptionResponse;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import com.expedia.alertmanager.notifier.util.LruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the subscriptions matching alert labels, entries expire after the configured ttl.
+ * Lookups capture the cache generation before resolving the subscriptions, so that results resolved before
+ * an invalidation are not cached after it.
+ */
+@Component
+public class SubscriptionMatchCache {
+
+    private final ApplicationConfig applicationConfig;
+    private final LruCache<Map<String, String>, CachedMatch> matches;
+    private final AtomicLong generation = new AtomicLong();
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public SubscriptionMatchCache(ApplicationConfig applicationConfig, MeterRegistry meterRegistry) {
+        this.applicationConfig = applicationConfig;
+        this.matches = new LruCache<>(applicationConfig.getSubscriptionCacheMaxSize());
+        this.hits = Counter.builder("subscription.match.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("subscription.match.cache").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("subscription.match.cache.size", matches, LruCache::size).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return applicationConfig.isSubscriptionCacheEnabled();
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param labels alert labels
+     * @return cached matching subscriptions, null when not cached or expired
+     */
+    public List<SubscriptionResponse> get(Map<String, String> labels) {
+        CachedMatch match = matches.get(labels);
+        if (match != null && System.currentTimeMillis() >= match.expiryTime) {
+            matches.remove(labels);
+            match = null;
+        }
+        if (match == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return match.subscriptions;
+    }
+
+    /**
+     * Caches the matching subscriptions of the labels, unless the cache was invalidated since the given generation.
+     * @param generation cache generation captured before resolving the subscriptions
+     * @param labels alert labels
+     * @param subscriptions matching subscriptions
+     */
+    public synchronized void put(long generation, Map<String, String> labels,
+                                 List<SubscriptionResponse> subscriptions) {
+        if (labels == null || generation != this.generation.get()) {
+            return;
+        }
+        //copy the labels, so a change of the alert labels can't corrupt the cache key
+        matches.put(new HashMap<>(labels), new CachedMatch(subscriptions,
+            System.currentTimeMillis() + applicationConfig.getSubscriptionCacheTtlMs()));
+    }
+
+    /**
+     * Drops all the cached matches, called when subscriptions change.
+     */
+    public synchronized void invalidate() {
+        generation.incrementAndGet();
+        matches.clear();
+    }
+
+    private static final class CachedMatch {
+        private final List<SubscriptionResponse> subscriptions;
+        private final long expiryTime;
+
+        private CachedMatch(List<SubscriptionResponse> subscriptions, long expiryTime) {
+            this.subscriptions = subscriptions;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -15,32 +15,53 @@
  */
 package com.expedia.alertmanager.notifier.service;
 
+import com.expedia.alertmanager.model.BatchMatchSubscriptionRequest;
 import com.expedia.alertmanager.model.SearchSubscriptionRequest;
+import com.expedia.alertmanager.model.SubscriptionChangeEvent;
 import com.expedia.alertmanager.model.SubscriptionResponse;
 import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.PostConstruct;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSession;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 @Component
+@Slf4j
 public class SubscriptionService {
     private final RestTemplate restTemplate;
+    private final ApplicationConfig applicationConfig;
     private final String subscriptionSerUrl;
+    private final SubscriptionMatchCache matchCache;
+    //serializes index swaps, so a change event is never lost by a reload that started before it
+    private final Object indexLock = new Object();
+    private volatile SubscriptionIndex subscriptionIndex;
+    //change events received while a reload is running, applied again to the reloaded index. Guarded by indexLock
+    private List<SubscriptionChangeEvent> eventsDuringReload;
+    //index as it was when the running reload started, whose versions are carried over to the reloaded index.
+    //Guarded by indexLock
+    private SubscriptionIndex indexBeforeReload;
 
     @Autowired
-    public SubscriptionService(RestTemplate restTemplate, ApplicationConfig applicationConfig) {
+    public SubscriptionService(RestTemplate restTemplate, ApplicationConfig applicationConfig,
+                               SubscriptionMatchCache matchCache) {
         this.restTemplate = restTemplate;
+        this.applicationConfig = applicationConfig;
+        this.matchCache = matchCache;
         this.subscriptionSerUrl = applicationConfig.getSubscriptionSerUrl();
     }
 
@@ -54,7 +75,163 @@ public class SubscriptionService {
         });
     }
 
+    /**
+     * Reloads all the subscriptions from subscription service and swaps the local index with a new one.
+     * The subscriptions are fetched without holding the index lock, the change events received meanwhile keep
+     * being applied to the current index and are applied again to the reloaded one before it is swapped in.
+     * The reloaded index only takes the versions known when the reload started, as the versions of the changes
+     * received meanwhile would otherwise make it skip them.
+     * If the reload fails, the existing index keeps serving matches until it is older than the allowed staleness.
+     */
+    @Scheduled(fixedDelayString = "${subscription-index.refresh-interval-ms:60000}")
+    public void refreshSubscriptionIndex() {
+        if (!applicationConfig.isSubscriptionIndexEnabled()) {
+            return;
+        }
+        synchronized (indexLock) {
+            eventsDuringReload = new ArrayList<>();
+            indexBeforeReload = this.subscriptionIndex;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            ResponseEntity<List<SubscriptionResponse>> subscriptionResponses =
+                restTemplate.exchange(applicationConfig.getSubscriptionIndexUrl(), HttpMethod.GET,
+                    null, new ParameterizedTypeReference<List<SubscriptionResponse>>(){});
+            SubscriptionIndex reloadedIndex = SubscriptionIndex.build(subscriptionResponses.getBody());
+            synchronized (indexLock) {
+                SubscriptionIndex index = reloadedIndex.withVersionsOf(indexBeforeReload);
+                if (!eventsDuringReload.isEmpty()) {
+                    index = index.apply(eventsDuringReload);
+                }
+                this.subscriptionIndex = index;
+                matchCache.invalidate();
+                log.info("Subscription index refreshed with {} subscriptions in {} ms", index.size(),
+                    System.currentTimeMillis() - startTime);
+            }
+        } catch (Exception e) {
+            log.error("Subscription index refresh failed", e);
+        } finally {
+            synchronized (indexLock) {
+                eventsDuringReload = null;
+                indexBeforeReload = null;
+            }
+        }
+    }
+
+    /**
+     * Applies the subscription changes published by subscription service to the local index, so that changes
+     * are matched without waiting for the next reload. Cached matches are dropped as they may be out of date.
+     * @param events subscription changes received in a poll
+     */
+    @KafkaListener(topics = "${subscription-changes.topic:subscription-changes}",
+        containerFactory = "subscriptionChangeListenerContainerFactory",
+        autoStartup = "${subscription-changes.enabled:false}")
+    public void onSubscriptionChanges(List<SubscriptionChangeEvent> events) {
+        synchronized (indexLock) {
+            if (eventsDuringReload != null) {
+                eventsDuringReload.addAll(events);
+            }
+            SubscriptionIndex index = this.subscriptionIndex;
+            if (index != null && applicationConfig.isSubscriptionIndexEnabled()) {
+                this.subscriptionIndex = index.apply(events);
+                log.info("Applied {} subscription changes to the subscription index", events.size());
+            }
+            matchCache.invalidate();
+        }
+    }
+
     public List<SubscriptionResponse> getSubscriptions(Map<String, String> labels) {
+        if (!matchCache.isEnabled()) {
+            return findSubscriptions(labels);
+        }
+        long generation = matchCache.getGeneration();
+        List<SubscriptionResponse> subscriptionResponses = matchCache.get(labels);
+        if (subscriptionResponses == null) {
+            subscriptionResponses = findSubscriptions(labels);
+            matchCache.put(generation, labels, subscriptionResponses);
+        }
+        return subscriptionResponses;
+    }
+
+    /**
+     * Finds the matching subscriptions for a batch of alert labels in one pass.
+     * Labels with cached matches are served from the cache, only the others are matched.
+     * @param labels labels of each alert in the batch
+     * @return matching subscriptions of each alert, in the same order as the given labels
+     */
+    public List<List<SubscriptionResponse>> getSubscriptions(List<Map<String, String>> labels) {
+        if (!matchCache.isEnabled()) {
+            return findSubscriptions(labels);
+        }
+        long generation = matchCache.getGeneration();
+        List<List<SubscriptionResponse>> subscriptionResponses = new ArrayList<>(labels.size());
+        List<Integer> missIndexes = new ArrayList<>();
+        List<Map<String, String>> missLabels = new ArrayList<>();
+        for (int i = 0; i < labels.size(); i++) {
+            List<SubscriptionResponse> cached = matchCache.get(labels.get(i));
+            subscriptionResponses.add(cached);
+            if (cached == null) {
+                missIndexes.add(i);
+                missLabels.add(labels.get(i));
+            }
+        }
+        if (missLabels.isEmpty()) {
+            return subscriptionResponses;
+        }
+        List<List<SubscriptionResponse>> matches = findSubscriptions(missLabels);
+        for (int i = 0; i < missIndexes.size(); i++) {
+            subscriptionResponses.set(missIndexes.get(i), matches.get(i));
+            matchCache.put(generation, missLabels.get(i), matches.get(i));
+        }
+        return subscriptionResponses;
+    }
+
+    private List<SubscriptionResponse> findSubscriptions(Map<String, String> labels) {
+        SubscriptionIndex index = getUsableIndex();
+        if (index != null) {
+            return index.match(labels);
+        }
+        //fallback to percolate the labels in subscription service
+        return searchSubscriptions(labels);
+    }
+
+    private List<List<SubscriptionResponse>> findSubscriptions(List<Map<String, String>> labels) {
+        List<List<SubscriptionResponse>> subscriptionResponses = new ArrayList<>(labels.size());
+        SubscriptionIndex index = getUsableIndex();
+        if (index != null) {
+            labels.forEach(alertLabels -> subscriptionResponses.add(index.match(alertLabels)));
+            return subscriptionResponses;
+        }
+        //fallback to percolate the labels in subscription service
+        if (!StringUtils.isEmpty(applicationConfig.getSubscriptionBatchMatchUrl())) {
+            return matchSubscriptions(labels);
+        }
+        labels.forEach(alertLabels -> subscriptionResponses.add(searchSubscriptions(alertLabels)));
+        return subscriptionResponses;
+    }
+
+    private SubscriptionIndex getUsableIndex() {
+        SubscriptionIndex index = this.subscriptionIndex;
+        if (index == null || !applicationConfig.isSubscriptionIndexEnabled()) {
+            return null;
+        }
+        if (System.currentTimeMillis() - index.getCreatedTime() > applicationConfig.getSubscriptionIndexMaxStalenessMs()) {
+            return null;
+        }
+        return index;
+    }
+
+    private List<List<SubscriptionResponse>> matchSubscriptions(List<Map<String, String>> labels) {
+        BatchMatchSubscriptionRequest rq = new BatchMatchSubscriptionRequest();
+        rq.setLabels(labels);
+        HttpEntity<BatchMatchSubscriptionRequest> request = new HttpEntity<>(rq);
+        ResponseEntity<List<List<SubscriptionResponse>>> subscriptionResponses =
+            restTemplate.exchange(applicationConfig.getSubscriptionBatchMatchUrl(), HttpMethod.POST,
+                request, new ParameterizedTypeReference<List<List<SubscriptionResponse>>>(){});
+        return subscriptionResponses.getBody();
+    }
+
+    private List<SubscriptionResponse> searchSubscriptions(Map<String, String> labels) {
         SearchSubscriptionRequest rq = new SearchSubscriptionRequest();
         rq.setLabels(labels);
         HttpEntity<SearchSubscriptionRequest> request = new HttpEntity<>(rq);
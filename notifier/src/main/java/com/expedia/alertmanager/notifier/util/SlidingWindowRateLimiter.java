@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free rate limiter allowing a max number of permits over a sliding time window.
+ * The window is split into buckets that are recycled as time moves on; a permit is granted when the sum of the
+ * buckets still inside the window is below the limit. Under contention the count is approximate, a few permits
+ * may be granted over the limit while a bucket is being recycled.
+ */
+public class SlidingWindowRateLimiter {
+
+    private final int buckets;
+    private final long bucketSizeMs;
+    private final AtomicLongArray bucketEpochs;
+    private final AtomicLongArray bucketCounts;
+    private final LongSupplier clock;
+
+    public SlidingWindowRateLimiter(long windowMs, int buckets) {
+        this(windowMs, buckets, System::currentTimeMillis);
+    }
+
+    SlidingWindowRateLimiter(long windowMs, int buckets, LongSupplier clock) {
+        this.buckets = buckets;
+        this.bucketSizeMs = Math.max(1, windowMs / buckets);
+        this.bucketEpochs = new AtomicLongArray(buckets);
+        this.bucketCounts = new AtomicLongArray(buckets);
+        this.clock = clock;
+        //mark all the buckets as outside of the window
+        for (int i = 0; i < buckets; i++) {
+            bucketEpochs.set(i, -buckets);
+        }
+    }
+
+    /**
+     * Takes a permit if less than limit permits were taken in the window.
+     * @param limit max permits in the window
+     * @return true if the permit was granted
+     */
+    public boolean tryAcquire(long limit) {
+        if (!hasPermit(limit)) {
+            return false;
+        }
+        acquire();
+        return true;
+    }
+
+    /**
+     * Checks if less than limit permits were taken in the window, without taking one.
+     * @param limit max permits in the window
+     * @return true if a permit can be granted
+     */
+    public boolean hasPermit(long limit) {
+        return count(clock.getAsLong() / bucketSizeMs) < limit;
+    }
+
+    /**
+     * Takes a permit whatever the number of permits already taken, once {@link #hasPermit(long)} granted it.
+     */
+    public void acquire() {
+        long epoch = clock.getAsLong() / bucketSizeMs;
+        int index = (int) (epoch % buckets);
+        long bucketEpoch = bucketEpochs.get(index);
+        if (bucketEpoch != epoch && bucketEpochs.compareAndSet(index, bucketEpoch, epoch)) {
+            bucketCounts.set(index, 0);
+        }
+        bucketCounts.incrementAndGet(index);
+    }
+
+    private long count(long epoch) {
+        long count = 0;
+        for (int i = 0; i < buckets; i++) {
+            if (epoch - bucketEpochs.get(i) < buckets) {
+                count += bucketCounts.get(i);
+            }
+        }
+        return count;
+    }
+}
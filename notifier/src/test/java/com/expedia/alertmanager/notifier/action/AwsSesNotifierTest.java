@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.action;
+
+import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceAsync;
+import com.amazonaws.services.simpleemail.model.SendEmailRequest;
+import com.amazonaws.services.simpleemail.model.SendEmailResult;
+import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
+import com.expedia.alertmanager.notifier.builder.MessageComposer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(SpringRunner.class)
+public class AwsSesNotifierTest {
+
+    @Mock
+    private AmazonSimpleEmailServiceAsync client;
+
+    @Mock
+    private MessageComposer messageComposer;
+
+    @Test
+    public void givenMoreRecipientsThanARequestAllows_shouldSendTheEmailInChunks() {
+        given(messageComposer.buildContent(any(Alert.class), anyString())).willReturn("content");
+        given(client.sendEmail(any(SendEmailRequest.class))).willReturn(new SendEmailResult());
+        AwsSesNotifier notifier = new AwsSesNotifier(messageComposer, "from@email.com", client, false, 50, 10);
+
+        notifier.notify(alert(), dispatcher(120));
+
+        ArgumentCaptor<SendEmailRequest> requests = ArgumentCaptor.forClass(SendEmailRequest.class);
+        verify(client, times(3)).sendEmail(requests.capture());
+        assertEquals(50, requests.getAllValues().get(0).getDestination().getToAddresses().size());
+        assertEquals(50, requests.getAllValues().get(1).getDestination().getToAddresses().size());
+        assertEquals(20, requests.getAllValues().get(2).getDestination().getToAddresses().size());
+        verify(messageComposer, times(1)).buildContent(any(Alert.class), anyString());
+    }
+
+    @Test
+    public void givenAsyncMode_shouldSendTheChunksWithTheAsyncClient() {
+        given(messageComposer.buildContent(any(Alert.class), anyString())).willReturn("content");
+        given(client.sendEmailAsync(any(SendEmailRequest.class)))
+            .willReturn(CompletableFuture.completedFuture(new SendEmailResult()));
+        AwsSesNotifier notifier = new AwsSesNotifier(messageComposer, "from@email.com", client, true, 50, 10);
+
+        notifier.notify(alert(), dispatcher(60));
+
+        verify(client, times(2)).sendEmailAsync(any(SendEmailRequest.class));
+        verify(client, times(0)).sendEmail(any(SendEmailRequest.class));
+    }
+
+    private Alert alert() {
+        Alert alert = new Alert();
+        alert.setName("alert");
+        return alert;
+    }
+
+    private Dispatcher dispatcher(int recipients) {
+        List<String> emails = IntStream.range(0, recipients).mapToObj(i -> "user" + i + "@email.com")
+            .collect(Collectors.toList());
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setType(Dispatcher.Type.EMAIL);
+        dispatcher.setEndpoint(String.join(",", emails));
+        return dispatcher;
+    }
+}
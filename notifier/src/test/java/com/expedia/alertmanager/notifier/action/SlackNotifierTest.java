@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.action;
+
+import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
+import com.expedia.alertmanager.notifier.builder.MessageComposer;
+import com.expedia.alertmanager.notifier.model.SlackMessage;
+import com.google.gson.Gson;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(SpringRunner.class)
+public class SlackNotifierTest {
+
+    private SlackNotifier notifier;
+
+    @Mock
+    private CloseableHttpAsyncClient client;
+
+    @Mock
+    private MessageComposer messageComposer;
+
+    @After
+    public void tearDown() {
+        notifier.close();
+    }
+
+    @Test
+    public void whenAlertsToAChannelArriveWithinTheBatchWindow_shouldPostThemInOneMessage() throws Exception {
+        given(messageComposer.buildContent(any(Alert.class), anyString())).willReturn("content");
+        given(client.execute(any(HttpUriRequest.class), any())).willAnswer(invocation -> {
+            complete(invocation.getArgument(1), response(200));
+            return CompletableFuture.completedFuture(null);
+        });
+        notifier = new SlackNotifier(client, messageComposer, "http://slack", "token", 200, 20, 100, 3);
+
+        notifier.notify(alert("cpu"), dispatcher());
+        notifier.notify(alert("memory"), dispatcher());
+        notifier.notify(alert("disk"), dispatcher());
+
+        ArgumentCaptor<HttpUriRequest> requests = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(client, timeout(2000).times(1)).execute(requests.capture(), any());
+        SlackMessage message = new Gson().fromJson(
+            EntityUtils.toString(((HttpPost) requests.getValue()).getEntity()), SlackMessage.class);
+        assertEquals("#channel", message.getChannel());
+        assertEquals(3, message.getAttachments().size());
+    }
+
+    @Test
+    public void whenSlackThrottles_shouldRetryTheMessageAfterRetryAfter() {
+        given(messageComposer.buildContent(any(Alert.class), anyString())).willReturn("content");
+        HttpResponse throttled = response(429);
+        throttled.setHeader(HttpHeaders.RETRY_AFTER, "0");
+        given(client.execute(any(HttpUriRequest.class), any()))
+            .willAnswer(invocation -> {
+                complete(invocation.getArgument(1), throttled);
+                return CompletableFuture.completedFuture(null);
+            })
+            .willAnswer(invocation -> {
+                complete(invocation.getArgument(1), response(200));
+                return CompletableFuture.completedFuture(null);
+            });
+        notifier = new SlackNotifier(client, messageComposer, "http://slack", "token", 0, 20, 100, 3);
+
+        notifier.notify(alert("cpu"), dispatcher());
+
+        verify(client, timeout(2000).times(2)).execute(any(HttpUriRequest.class), any());
+    }
+
+    @Test
+    public void whenClosed_shouldPostTheQueuedAlertsWithoutWaitingForTheBatchWindow() {
+        given(messageComposer.buildContent(any(Alert.class), anyString())).willReturn("content");
+        given(client.execute(any(HttpUriRequest.class), any()))
+            .willReturn(CompletableFuture.completedFuture(response(200)));
+        notifier = new SlackNotifier(client, messageComposer, "http://slack", "token", 60000, 20, 100, 3);
+
+        notifier.notify(alert("cpu"), dispatcher());
+        notifier.close();
+
+        verify(client, times(1)).execute(any(HttpUriRequest.class), any());
+    }
+
+    @Test
+    public void whenClosedWithAMessageInFlight_shouldPostTheQueuedAlertsAfterIt() throws Exception {
+        given(messageComposer.buildContent(any(Alert.class), anyString())).willReturn("content");
+        AtomicReference<Object> inFlightCallback = new AtomicReference<>();
+        given(client.execute(any(HttpUriRequest.class), any()))
+            .willAnswer(invocation -> {
+                inFlightCallback.set(invocation.getArgument(1));
+                return new CompletableFuture<>();
+            })
+            .willReturn(CompletableFuture.completedFuture(response(200)));
+        notifier = new SlackNotifier(client, messageComposer, "http://slack", "token", 0, 20, 100, 3);
+
+        notifier.notify(alert("cpu"), dispatcher());
+        verify(client, timeout(2000).times(1)).execute(any(HttpUriRequest.class), any());
+        notifier.notify(alert("memory"), dispatcher());
+        Thread closing = new Thread(notifier::close);
+        closing.start();
+        Thread.sleep(100);
+        verify(client, times(1)).execute(any(HttpUriRequest.class), any());
+
+        complete(inFlightCallback.get(), response(200));
+        closing.join(2000);
+        verify(client, times(2)).execute(any(HttpUriRequest.class), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(Object callback, HttpResponse response) {
+        ((FutureCallback<HttpResponse>) callback).completed(response);
+    }
+
+    private HttpResponse response(int status) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+        response.setEntity(new StringEntity("{\"ok\":true}", "UTF-8"));
+        return response;
+    }
+
+    private Alert alert(String name) {
+        Alert alert = new Alert();
+        alert.setName(name);
+        alert.setLabels(Collections.singletonMap("app", "search"));
+        return alert;
+    }
+
+    private Dispatcher dispatcher() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setType(Dispatcher.Type.SLACK);
+        dispatcher.setEndpoint("#channel");
+        return dispatcher;
+    }
+}
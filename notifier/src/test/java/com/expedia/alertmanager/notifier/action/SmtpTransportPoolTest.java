@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.action;
+
+import org.junit.Test;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class SmtpTransportPoolTest {
+
+    private final Session session = Session.getInstance(new Properties());
+    private final List<Transport> transports = new ArrayList<>();
+
+    @Test
+    public void givenMultipleSends_shouldReuseTheConnectedTransport() throws MessagingException {
+        SmtpTransportPool pool = pool(10);
+        pool.send(message());
+        pool.send(message());
+        assertEquals(1, transports.size());
+        verify(transports.get(0), times(1)).connect();
+        verify(transports.get(0), times(2)).sendMessage(any(Message.class), any());
+    }
+
+    @Test
+    public void whenMaxMessagesPerConnectionIsReached_shouldOpenANewConnection() throws MessagingException {
+        SmtpTransportPool pool = pool(2);
+        pool.send(message());
+        pool.send(message());
+        pool.send(message());
+        assertEquals(2, transports.size());
+        verify(transports.get(0), times(1)).close();
+    }
+
+    @Test
+    public void whenSendOverAPooledConnectionFails_shouldRetryOverANewConnection() throws MessagingException {
+        SmtpTransportPool pool = pool(10);
+        pool.send(message());
+        willThrow(new MessagingException("broken pipe")).given(transports.get(0))
+            .sendMessage(any(Message.class), any());
+        pool.send(message());
+        verify(transports.get(0), times(1)).close();
+        assertEquals(2, transports.size());
+        verify(transports.get(1), times(1)).sendMessage(any(Message.class), any());
+    }
+
+    @Test
+    public void whenSendOverANewConnectionFails_shouldDiscardTheConnectionWithoutRetrying() throws MessagingException {
+        SmtpTransportPool pool = new SmtpTransportPool(session, 2, 30000, 10) {
+            @Override
+            protected Transport createTransport() throws MessagingException {
+                Transport transport = mock(Transport.class);
+                given(transport.isConnected()).willReturn(true);
+                willThrow(new MessagingException("broken pipe")).given(transport)
+                    .sendMessage(any(Message.class), any());
+                transports.add(transport);
+                return transport;
+            }
+        };
+        try {
+            pool.send(message());
+            fail("send should have failed");
+        } catch (MessagingException e) {
+            assertEquals("broken pipe", e.getMessage());
+        }
+        assertEquals(1, transports.size());
+        verify(transports.get(0), times(1)).close();
+    }
+
+    private SmtpTransportPool pool(int maxMessagesPerConnection) {
+        return new SmtpTransportPool(session, 2, 30000, maxMessagesPerConnection) {
+            @Override
+            protected Transport createTransport() {
+                Transport transport = mock(Transport.class);
+                given(transport.isConnected()).willReturn(true);
+                transports.add(transport);
+                return transport;
+            }
+        };
+    }
+
+    private Message message() throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@email.com"));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse("to@email.com"));
+        message.setText("text");
+        return message;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.builder;
+
+import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(SpringRunner.class)
+public class MessageComposerTest {
+
+    @Mock
+    private ApplicationConfig applicationConfig;
+
+    private Configuration freemarkerConfig;
+
+    private final List<Template> loadedTemplates = new ArrayList<>();
+
+    private MessageComposer messageComposer;
+
+    @Before
+    public void setUp() throws IOException {
+        given(applicationConfig.getRenderedContentCacheSize()).willReturn(10);
+        freemarkerConfig = spy(new Configuration(Configuration.VERSION_2_3_28));
+        freemarkerConfig.setClassForTemplateLoading(MessageComposer.class, "/templates/");
+        willAnswer(invocation -> {
+            Template template = spy((Template) invocation.callRealMethod());
+            loadedTemplates.add(template);
+            return template;
+        }).given(freemarkerConfig).getTemplate(anyString());
+        messageComposer = new MessageComposer(freemarkerConfig, applicationConfig);
+        messageComposer.loadTemplates();
+    }
+
+    @Test
+    public void givenTheSameAlertForManySubscribers_shouldRenderItOnce() throws Exception {
+        Alert alert = alert("search");
+        String content = messageComposer.buildContent(alert, MessageComposer.SLACK_TEMPLATE);
+        assertTrue(content.contains("app = search"));
+        assertEquals(content, messageComposer.buildContent(alert("search"), MessageComposer.SLACK_TEMPLATE));
+        verify(freemarkerConfig, times(1)).getTemplate(MessageComposer.SLACK_TEMPLATE);
+        verify(slackTemplate(), times(1)).process(any(), any(Writer.class));
+    }
+
+    @Test
+    public void givenAnAlertChangedAfterBeingRendered_shouldRenderItAgain() throws Exception {
+        Alert alert = alert("search");
+        assertTrue(messageComposer.buildContent(alert, MessageComposer.SLACK_TEMPLATE).contains("app = search"));
+        alert.setLabels(Collections.singletonMap("app", "shopping"));
+        assertTrue(messageComposer.buildContent(alert, MessageComposer.SLACK_TEMPLATE).contains("app = shopping"));
+        verify(slackTemplate(), times(2)).process(any(), any(Writer.class));
+    }
+
+    @Test
+    public void givenDifferentAlerts_shouldRenderEachOfThem() {
+        assertTrue(messageComposer.buildContent(alert("search"), MessageComposer.SLACK_TEMPLATE)
+            .contains("app = search"));
+        assertTrue(messageComposer.buildContent(alert("shopping"), MessageComposer.SLACK_TEMPLATE)
+            .contains("app = shopping"));
+    }
+
+    private Template slackTemplate() {
+        return loadedTemplates.stream()
+            .filter(template -> template.getName().equals(MessageComposer.SLACK_TEMPLATE))
+            .findFirst()
+            .orElseThrow(IllegalStateException::new);
+    }
+
+    private Alert alert(String app) {
+        Alert alert = new Alert();
+        alert.setName("alert");
+        alert.setLabels(Collections.singletonMap("app", app));
+        return alert;
+    }
+}
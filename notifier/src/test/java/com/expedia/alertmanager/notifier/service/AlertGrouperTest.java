@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
+import com.expedia.alertmanager.model.SubscriptionResponse;
+import com.expedia.alertmanager.notifier.action.Notifier;
+import com.expedia.alertmanager.notifier.action.NotifierFactory;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(SpringRunner.class)
+public class AlertGrouperTest {
+
+    private AlertGrouper alertGrouper;
+    private Dispatcher dispatcher;
+    private SubscriptionResponse subscription;
+
+    @Mock
+    private NotifierFactory notifierFactory;
+
+    @Mock
+    private DispatchService dispatchService;
+
+    @Mock
+    private Notifier notifier;
+
+    @Mock
+    private ApplicationConfig applicationConfig;
+
+    @Mock
+    private RateLimitService rateLimitService;
+
+    @Before
+    public void setUp() {
+        given(applicationConfig.getGroupWaitMs()).willReturn(30L);
+        given(applicationConfig.getGroupIntervalMs()).willReturn(300L);
+        given(applicationConfig.getRepeatIntervalMs()).willReturn(3000L);
+        //run the dispatches on the calling thread
+        given(dispatchService.dispatch(any(), any())).willAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(1)).run();
+            return CompletableFuture.completedFuture(null);
+        });
+        dispatcher = new Dispatcher();
+        dispatcher.setType(Dispatcher.Type.EMAIL);
+        dispatcher.setEndpoint("email@email.com");
+        given(notifierFactory.getNotifier(dispatcher)).willReturn(notifier);
+        subscription = subscription("1");
+        given(rateLimitService.tryAcquire(any(), any(), any())).willReturn(true);
+        alertGrouper = new AlertGrouper(notifierFactory, dispatchService, applicationConfig, rateLimitService);
+    }
+
+    @Test
+    public void whenAnAlertRepeatsWithinGroupWait_oneNotificationWithTheOccurrencesIsSent() {
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 0);
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 10);
+        alertGrouper.flush(20, false);
+        verify(notifier, never()).notify(any(), any());
+
+        alertGrouper.flush(30, false);
+        ArgumentCaptor<Alert> captor = ArgumentCaptor.forClass(Alert.class);
+        verify(notifier, times(1)).notify(captor.capture(), eq(dispatcher));
+        assertEquals("2", captor.getValue().getAnnotations().get(AlertGrouper.OCCURRENCES_ANNOTATION));
+    }
+
+    @Test
+    public void whenAnAlertRepeatsUnchanged_itIsNotifiedAgainAfterRepeatInterval() {
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 0);
+        alertGrouper.flush(30, false);
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 100);
+        alertGrouper.flush(330, false);
+        verify(notifier, times(1)).notify(any(), any());
+
+        alertGrouper.flush(3030, false);
+        ArgumentCaptor<Alert> captor = ArgumentCaptor.forClass(Alert.class);
+        verify(notifier, times(2)).notify(captor.capture(), eq(dispatcher));
+        assertNull(captor.getValue().getAnnotations().get(AlertGrouper.OCCURRENCES_ANNOTATION));
+    }
+
+    @Test
+    public void whenAnAlertChanges_itIsNotifiedAgainAfterGroupInterval() {
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 0);
+        alertGrouper.flush(30, false);
+        alertGrouper.add(alert("cpu", "very high"), singletonList(subscription), 100);
+        alertGrouper.flush(300, false);
+        verify(notifier, times(1)).notify(any(), any());
+
+        alertGrouper.flush(330, false);
+        verify(notifier, times(2)).notify(any(), any());
+    }
+
+    @Test
+    public void whenAGroupIsIdleForRepeatInterval_itIsEvicted() {
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 0);
+        alertGrouper.flush(30, false);
+        assertEquals(1, alertGrouper.size());
+        alertGrouper.flush(3001, false);
+        assertEquals(0, alertGrouper.size());
+    }
+
+    @Test
+    public void whenTwoSubscriptionsShareTheDispatcher_theAlertIsOneOccurrenceOfTheGroup() {
+        SubscriptionResponse other = subscription("2");
+        alertGrouper.add(alert("cpu", "high"), Arrays.asList(subscription, other), 0);
+        assertEquals(1, alertGrouper.size());
+
+        alertGrouper.flush(30, false);
+        ArgumentCaptor<Alert> captor = ArgumentCaptor.forClass(Alert.class);
+        verify(notifier, times(1)).notify(captor.capture(), eq(dispatcher));
+        assertNull(captor.getValue().getAnnotations().get(AlertGrouper.OCCURRENCES_ANNOTATION));
+        verify(rateLimitService, times(1)).tryAcquire(any(), eq(Arrays.asList(subscription, other)), eq(dispatcher));
+    }
+
+    @Test
+    public void whenFingerprintsCollide_alertsWithDifferentLabelsAreNotMerged() {
+        alertGrouper = new AlertGrouper(notifierFactory, dispatchService, applicationConfig, rateLimitService,
+            alert -> 42L);
+        Alert other = alert("cpu", "high");
+        other.setLabels(Collections.singletonMap("app", "shopping"));
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 0);
+        alertGrouper.add(other, singletonList(subscription), 10);
+        assertEquals(2, alertGrouper.size());
+
+        alertGrouper.flush(40, false);
+        verify(notifier, times(2)).notify(any(), eq(dispatcher));
+    }
+
+    @Test
+    public void rateLimitsAreAppliedOncePerGroupNotification() {
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 0);
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 10);
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 20);
+        verify(rateLimitService, never()).tryAcquire(any(), any(), any());
+
+        alertGrouper.flush(30, false);
+        verify(rateLimitService, times(1)).tryAcquire(any(), eq(singletonList(subscription)), eq(dispatcher));
+        verify(notifier, times(1)).notify(any(), eq(dispatcher));
+    }
+
+    @Test
+    public void whenTheNotificationIsRateLimited_theGroupIsNotNotified() {
+        given(rateLimitService.tryAcquire(any(), any(), eq(dispatcher))).willReturn(false);
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 0);
+        alertGrouper.flush(30, false);
+        verify(notifier, never()).notify(any(), any());
+    }
+
+    @Test
+    public void theRateLimitsAreAppliedWithAllTheSubscriptionsOfTheGroup() {
+        SubscriptionResponse other = subscription("2");
+        alertGrouper.add(alert("cpu", "high"), singletonList(other), 0);
+        alertGrouper.add(alert("cpu", "high"), singletonList(subscription), 10);
+        alertGrouper.flush(30, false);
+        verify(rateLimitService, times(1)).tryAcquire(any(), eq(Arrays.asList(other, subscription)), eq(dispatcher));
+        verify(notifier, times(1)).notify(any(), eq(dispatcher));
+    }
+
+    @Test
+    public void fingerprintDependsOnNameAndLabelsOnly() {
+        Alert alert = alert("cpu", "high");
+        Alert sameLabels = alert("cpu", "low");
+        Alert otherLabels = alert("cpu", "high");
+        otherLabels.setLabels(Collections.singletonMap("app", "shopping"));
+        assertEquals(AlertGrouper.fingerprint(alert), AlertGrouper.fingerprint(sameLabels));
+        assertNotEquals(AlertGrouper.fingerprint(alert), AlertGrouper.fingerprint(otherLabels));
+    }
+
+    private SubscriptionResponse subscription(String id) {
+        SubscriptionResponse subscription = new SubscriptionResponse();
+        subscription.setId(id);
+        subscription.setDispatchers(singletonList(dispatcher));
+        return subscription;
+    }
+
+    private Alert alert(String name, String summary) {
+        Alert alert = new Alert();
+        alert.setName(name);
+        alert.setLabels(Collections.singletonMap("app", "search"));
+        alert.setAnnotations(Collections.singletonMap("summary", summary));
+        return alert;
+    }
+}
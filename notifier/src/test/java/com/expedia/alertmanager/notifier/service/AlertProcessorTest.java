@@ -30,8 +30,11 @@ import org.springframework.test.context.junit4.SpringRunner;
 import java.util.Arrays;
 import java.util.Collections;
 
-import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -51,15 +54,22 @@ public class AlertProcessorTest {
     private Notifier notifier;
 
     @Mock
-    private AlertReadService alertsReadService;
+    private RateLimitService rateLimitService;
 
     @Mock
     private ApplicationConfig applicationConfig;
 
+    @Mock
+    private AlertGrouper alertGrouper;
+
     @Before
     public void setUp() {
+        given(applicationConfig.getDispatchPoolSize(any())).willReturn(2);
+        given(applicationConfig.getDispatchQueueSize(any())).willReturn(10);
+        given(applicationConfig.getDispatchAwaitTimeoutMs()).willReturn(1000L);
+        given(rateLimitService.tryAcquire(any(), any(), any())).willReturn(true);
         alertProcessor = new AlertProcessor(notifierFactory, subscriptionService,
-            alertsReadService, applicationConfig);
+            rateLimitService, applicationConfig, new DispatchService(applicationConfig), alertGrouper);
     }
 
     @Test
@@ -68,41 +78,42 @@ public class AlertProcessorTest {
         emailDispatcher.setType(Dispatcher.Type.EMAIL);
         emailDispatcher.setEndpoint("email@email.com");
         Dispatcher slackDispatcher = new Dispatcher();
-        emailDispatcher.setType(Dispatcher.Type.SLACK);
-        emailDispatcher.setEndpoint("#channel");
+        slackDispatcher.setType(Dispatcher.Type.SLACK);
+        slackDispatcher.setEndpoint("#channel");
         SubscriptionResponse subscriptionResponse = new SubscriptionResponse();
         subscriptionResponse.setDispatchers(Arrays.asList(emailDispatcher, slackDispatcher));
-        given(subscriptionService.getSubscriptions(anyMap())).willReturn(Arrays.asList(subscriptionResponse));
+        given(subscriptionService.getSubscriptions(anyList()))
+            .willReturn(Collections.singletonList(Arrays.asList(subscriptionResponse)));
         given(notifierFactory.getNotifier(emailDispatcher)).willReturn(notifier);
         given(notifierFactory.getNotifier(slackDispatcher)).willReturn(notifier);
         given(applicationConfig.getExpiryTimeInSec()).willReturn((System.currentTimeMillis()+1) / 1000);
         Alert alert = new Alert();
         alert.setLabels(Collections.emptyMap());
         alertProcessor.receive(alert);
-        verify(notifier, times(2)).notify(alert);
+        verify(notifier, times(2)).notify(eq(alert), any());
     }
 
     @Test
     public void whenAlertRateLimiterApplied_AndAlertReceivedIsBlockedByRateLimiter_noneOfTheNotifiersAreInvoked() {
-        when(applicationConfig.isRateLimitEnabled()).thenReturn(true);
         when(applicationConfig.getRateLimit()).thenReturn(10L);
-        when(alertsReadService.getAlertsCountForToday()).thenReturn(10L);
+        when(rateLimitService.tryAcquire(any(), any(), any())).thenReturn(false);
         given(applicationConfig.getExpiryTimeInSec()).willReturn(300l);
         Dispatcher emailDispatcher = new Dispatcher();
         emailDispatcher.setType(Dispatcher.Type.EMAIL);
         emailDispatcher.setEndpoint("email@email.com");
         Dispatcher slackDispatcher = new Dispatcher();
-        emailDispatcher.setType(Dispatcher.Type.SLACK);
-        emailDispatcher.setEndpoint("#channel");
+        slackDispatcher.setType(Dispatcher.Type.SLACK);
+        slackDispatcher.setEndpoint("#channel");
         SubscriptionResponse subscriptionResponse = new SubscriptionResponse();
         subscriptionResponse.setDispatchers(Arrays.asList(emailDispatcher, slackDispatcher));
-        given(subscriptionService.getSubscriptions(anyMap())).willReturn(Arrays.asList(subscriptionResponse));
+        given(subscriptionService.getSubscriptions(anyList()))
+            .willReturn(Collections.singletonList(Arrays.asList(subscriptionResponse)));
         given(notifierFactory.getNotifier(emailDispatcher)).willReturn(notifier);
         given(notifierFactory.getNotifier(slackDispatcher)).willReturn(notifier);
         Alert alert = new Alert();
         alert.setLabels(Collections.emptyMap());
         alertProcessor.receive(alert);
-        verify(notifier, times(0)).notify(alert);
+        verify(notifier, times(0)).notify(eq(alert), any());
     }
 
     @Test
@@ -111,11 +122,12 @@ public class AlertProcessorTest {
         emailDispatcher.setType(Dispatcher.Type.EMAIL);
         emailDispatcher.setEndpoint("email@email.com");
         Dispatcher slackDispatcher = new Dispatcher();
-        emailDispatcher.setType(Dispatcher.Type.SLACK);
-        emailDispatcher.setEndpoint("#channel");
+        slackDispatcher.setType(Dispatcher.Type.SLACK);
+        slackDispatcher.setEndpoint("#channel");
         SubscriptionResponse subscriptionResponse = new SubscriptionResponse();
         subscriptionResponse.setDispatchers(Arrays.asList(emailDispatcher, slackDispatcher));
-        given(subscriptionService.getSubscriptions(anyMap())).willReturn(Arrays.asList(subscriptionResponse));
+        given(subscriptionService.getSubscriptions(anyList()))
+            .willReturn(Collections.singletonList(Arrays.asList(subscriptionResponse)));
         given(notifierFactory.getNotifier(emailDispatcher)).willReturn(notifier);
         given(notifierFactory.getNotifier(slackDispatcher)).willReturn(notifier);
         Alert alert = new Alert();
@@ -126,6 +138,49 @@ public class AlertProcessorTest {
         alert.setCreationTime(0);
         alertProcessor.receive(alert);
         //no notifiers are invoked
-        verify(notifier, times(0)).notify(alert);
+        verify(notifier, times(0)).notify(eq(alert), any());
+    }
+
+    @Test
+    public void whenABatchOfAlertsIsReceived_shouldMatchThemInOnePassAndInvokeTheNotifiers() {
+        Dispatcher emailDispatcher = new Dispatcher();
+        emailDispatcher.setType(Dispatcher.Type.EMAIL);
+        emailDispatcher.setEndpoint("email@email.com");
+        SubscriptionResponse subscriptionResponse = new SubscriptionResponse();
+        subscriptionResponse.setDispatchers(Collections.singletonList(emailDispatcher));
+        given(subscriptionService.getSubscriptions(anyList()))
+            .willReturn(Arrays.asList(Collections.singletonList(subscriptionResponse), Collections.emptyList()));
+        given(notifierFactory.getNotifier(emailDispatcher)).willReturn(notifier);
+        Alert matchingAlert = new Alert();
+        matchingAlert.setLabels(Collections.singletonMap("app", "search"));
+        matchingAlert.setCreationTime(System.currentTimeMillis() / 1000);
+        Alert otherAlert = new Alert();
+        otherAlert.setLabels(Collections.singletonMap("app", "shopping"));
+        otherAlert.setCreationTime(System.currentTimeMillis() / 1000);
+        alertProcessor.receive(Arrays.asList(matchingAlert, otherAlert));
+        verify(subscriptionService, times(1)).getSubscriptions(anyList());
+        verify(notifier, times(1)).notify(eq(matchingAlert), any());
+        verify(notifier, times(0)).notify(eq(otherAlert), any());
+    }
+
+    @Test
+    public void whenGroupingIsEnabled_alertsAreHandedToTheGrouperInsteadOfTheNotifiers() {
+        given(alertGrouper.isEnabled()).willReturn(true);
+        Dispatcher emailDispatcher = new Dispatcher();
+        emailDispatcher.setType(Dispatcher.Type.EMAIL);
+        emailDispatcher.setEndpoint("email@email.com");
+        SubscriptionResponse subscriptionResponse = new SubscriptionResponse();
+        subscriptionResponse.setDispatchers(Collections.singletonList(emailDispatcher));
+        given(subscriptionService.getSubscriptions(anyList()))
+            .willReturn(Collections.singletonList(Collections.singletonList(subscriptionResponse)));
+        given(notifierFactory.getNotifier(emailDispatcher)).willReturn(notifier);
+        Alert alert = new Alert();
+        alert.setLabels(Collections.emptyMap());
+        alert.setCreationTime(System.currentTimeMillis() / 1000);
+        alertProcessor.receive(alert);
+        verify(alertGrouper, times(1)).add(alert, Collections.singletonList(subscriptionResponse));
+        verify(notifier, times(0)).notify(eq(alert), any());
+        //the grouper applies the rate limits once the group is notified
+        verify(rateLimitService, never()).tryAcquire(any(), any(), any());
     }
 }
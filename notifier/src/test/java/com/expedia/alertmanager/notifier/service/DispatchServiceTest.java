@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.Dispatcher;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+
+@RunWith(SpringRunner.class)
+public class DispatchServiceTest {
+
+    @Mock
+    private ApplicationConfig applicationConfig;
+
+    private DispatchService dispatchService;
+
+    @Before
+    public void setUp() {
+        given(applicationConfig.getDispatchPoolSize(any())).willReturn(1);
+        given(applicationConfig.getDispatchQueueSize(any())).willReturn(1);
+        given(applicationConfig.getDispatchAwaitTimeoutMs()).willReturn(5000L);
+        dispatchService = new DispatchService(applicationConfig);
+    }
+
+    @After
+    public void tearDown() {
+        dispatchService.shutdown();
+    }
+
+    @Test
+    public void whenDispatchesAreAwaited_allOfThemAreCompletedIncludingFailedOnes() {
+        AtomicInteger notified = new AtomicInteger();
+        List<CompletableFuture<Void>> dispatches = Arrays.asList(
+            dispatchService.dispatch(Dispatcher.Type.EMAIL, notified::incrementAndGet),
+            dispatchService.dispatch(Dispatcher.Type.SLACK, () -> {
+                throw new RuntimeException("slack is down");
+            }),
+            dispatchService.dispatch(Dispatcher.Type.SLACK, notified::incrementAndGet));
+        dispatchService.awaitCompletion(dispatches);
+        assertEquals(2, notified.get());
+        assertTrue(dispatches.stream().allMatch(CompletableFuture::isDone));
+    }
+
+    @Test
+    public void whenTheChannelQueueIsFull_theNotificationRunsOnTheCallerThread() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<CompletableFuture<Void>> dispatches = new ArrayList<>();
+        //occupy the only worker and the only queue slot of the channel
+        dispatches.add(dispatchService.dispatch(Dispatcher.Type.EMAIL, () -> {
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        dispatches.add(dispatchService.dispatch(Dispatcher.Type.EMAIL, () -> { }));
+
+        Thread caller = Thread.currentThread();
+        List<Thread> runOn = new ArrayList<>();
+        dispatches.add(dispatchService.dispatch(Dispatcher.Type.EMAIL, () -> runOn.add(Thread.currentThread())));
+        blocked.countDown();
+        dispatchService.awaitCompletion(dispatches);
+        assertEquals(caller, runOn.get(0));
+    }
+}
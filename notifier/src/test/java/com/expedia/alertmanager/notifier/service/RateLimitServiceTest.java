@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.Dispatcher;
+import com.expedia.alertmanager.model.SubscriptionResponse;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+
+@RunWith(SpringRunner.class)
+public class RateLimitServiceTest {
+
+    private static final String TOPIC = "alerts";
+    private static final Alert ALERT = new Alert();
+    private static final SubscriptionResponse SUBSCRIPTION = subscription("1");
+    private static final Dispatcher EMAIL = dispatcher(Dispatcher.Type.EMAIL, "team@example.com");
+    private static final Dispatcher SLACK = dispatcher(Dispatcher.Type.SLACK, "team@example.com");
+
+    @Mock
+    private ApplicationConfig applicationConfig;
+
+    @Mock
+    private Consumer<?, ?> consumer;
+
+    @Before
+    public void setUp() {
+        given(applicationConfig.isRateLimitEnabled()).willReturn(true);
+        given(applicationConfig.getRateLimitWindowMs()).willReturn(60000L);
+        given(applicationConfig.getRateLimitWindowBuckets()).willReturn(60);
+        given(applicationConfig.getRateLimitMaxTrackedKeys()).willReturn(100);
+        given(applicationConfig.getTopic()).willReturn(TOPIC);
+        given(applicationConfig.getRateLimit()).willReturn(1000L);
+    }
+
+    @Test
+    public void givenAGlobalLimit_shouldNotifyUpToTheLimit() {
+        given(applicationConfig.getRateLimit()).willReturn(5L);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        assertEquals(5, countAlertPermits(rateLimitService, 10));
+    }
+
+    @Test
+    public void givenRateLimitDisabled_shouldNotLimit() {
+        given(applicationConfig.isRateLimitEnabled()).willReturn(false);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        assertEquals(10, countAlertPermits(rateLimitService, 10));
+    }
+
+    @Test
+    public void givenALimitPerSubscription_shouldLimitEachSubscriptionSeparately() {
+        given(applicationConfig.getRateLimitPerSubscription()).willReturn(2L);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        SubscriptionResponse first = subscription("1");
+        SubscriptionResponse second = subscription("2");
+        int firstPermits = 0;
+        int secondPermits = 0;
+        for (int i = 0; i < 5; i++) {
+            firstPermits += rateLimitService.tryAcquire(ALERT, singletonList(first), EMAIL) ? 1 : 0;
+            secondPermits += rateLimitService.tryAcquire(ALERT, singletonList(second), EMAIL) ? 1 : 0;
+        }
+        assertEquals(2, firstPermits);
+        assertEquals(2, secondPermits);
+    }
+
+    @Test
+    public void givenALimitPerEndpoint_shouldLimitEachEndpointSeparately() {
+        given(applicationConfig.getRateLimitPerEndpoint()).willReturn(3L);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        int emailPermits = 0;
+        int slackPermits = 0;
+        for (int i = 0; i < 5; i++) {
+            emailPermits += rateLimitService.tryAcquire(ALERT, singletonList(SUBSCRIPTION), EMAIL) ? 1 : 0;
+            slackPermits += rateLimitService.tryAcquire(ALERT, singletonList(SUBSCRIPTION), SLACK) ? 1 : 0;
+        }
+        assertEquals(3, emailPermits);
+        assertEquals(3, slackPermits);
+    }
+
+    @Test
+    public void givenMoreSubscriptionsThanTracked_shouldDropTheLeastRecentlyNotifiedLimiter() {
+        given(applicationConfig.getRateLimitPerSubscription()).willReturn(1L);
+        given(applicationConfig.getRateLimitMaxTrackedKeys()).willReturn(1);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        SubscriptionResponse first = subscription("1");
+        assertTrue(rateLimitService.tryAcquire(ALERT, singletonList(first), EMAIL));
+        assertFalse(rateLimitService.tryAcquire(ALERT, singletonList(first), EMAIL));
+        assertTrue(rateLimitService.tryAcquire(ALERT, singletonList(subscription("2")), EMAIL));
+        assertTrue(rateLimitService.tryAcquire(ALERT, singletonList(first), EMAIL));
+    }
+
+    @Test
+    public void givenANotificationDeniedByItsEndpoint_shouldNotUseUpTheGlobalLimit() {
+        given(applicationConfig.getRateLimit()).willReturn(2L);
+        given(applicationConfig.getRateLimitPerEndpoint()).willReturn(1L);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        assertTrue(rateLimitService.tryAcquire(ALERT, singletonList(SUBSCRIPTION), EMAIL));
+        assertFalse(rateLimitService.tryAcquire(ALERT, singletonList(SUBSCRIPTION), EMAIL));
+        assertTrue(rateLimitService.tryAcquire(ALERT, singletonList(SUBSCRIPTION), SLACK));
+    }
+
+    @Test
+    public void givenSeveralSubscriptions_shouldOnlyUseUpTheFirstOneBelowItsLimit() {
+        given(applicationConfig.getRateLimitPerSubscription()).willReturn(1L);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        SubscriptionResponse first = subscription("1");
+        SubscriptionResponse second = subscription("2");
+        assertTrue(rateLimitService.tryAcquire(ALERT, Arrays.asList(first, second), EMAIL));
+        assertTrue(rateLimitService.tryAcquire(ALERT, Arrays.asList(first, second), EMAIL));
+        assertFalse(rateLimitService.tryAcquire(ALERT, Arrays.asList(first, second), EMAIL));
+    }
+
+    @Test
+    public void givenPartitionAware_shouldApplyTheShareOfTheAssignedPartitions() {
+        given(applicationConfig.getRateLimit()).willReturn(10L);
+        given(applicationConfig.isRateLimitPartitionAware()).willReturn(true);
+        givenTopicPartitions(4);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        rateLimitService.onPartitionsAssigned(consumer,
+            Arrays.asList(new TopicPartition(TOPIC, 0), new TopicPartition(TOPIC, 1)));
+        assertEquals(5, countAlertPermits(rateLimitService, 10));
+    }
+
+    @Test
+    public void givenPartitionAware_whenPartitionsAreRevoked_shouldShrinkTheShare() {
+        given(applicationConfig.getRateLimit()).willReturn(10L);
+        given(applicationConfig.isRateLimitPartitionAware()).willReturn(true);
+        givenTopicPartitions(4);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        rateLimitService.onPartitionsAssigned(consumer,
+            Arrays.asList(new TopicPartition(TOPIC, 0), new TopicPartition(TOPIC, 1), new TopicPartition(TOPIC, 2)));
+        rateLimitService.onPartitionsRevokedBeforeCommit(consumer,
+            Arrays.asList(new TopicPartition(TOPIC, 1), new TopicPartition(TOPIC, 2)));
+        //ceil(10 * 1 / 4)
+        assertEquals(3, countAlertPermits(rateLimitService, 10));
+    }
+
+    @Test
+    public void givenNotPartitionAware_shouldApplyTheFullLimitOnEachInstance() {
+        given(applicationConfig.getRateLimit()).willReturn(10L);
+        given(applicationConfig.isRateLimitPartitionAware()).willReturn(false);
+        givenTopicPartitions(4);
+        RateLimitService rateLimitService = new RateLimitService(applicationConfig);
+        rateLimitService.onPartitionsAssigned(consumer, Arrays.asList(new TopicPartition(TOPIC, 0)));
+        assertEquals(10, countAlertPermits(rateLimitService, 20));
+    }
+
+    private int countAlertPermits(RateLimitService rateLimitService, int attempts) {
+        int permits = 0;
+        for (int i = 0; i < attempts; i++) {
+            permits += rateLimitService.tryAcquire(ALERT, singletonList(SUBSCRIPTION), EMAIL) ? 1 : 0;
+        }
+        return permits;
+    }
+
+    private void givenTopicPartitions(int count) {
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            partitions.add(new PartitionInfo(TOPIC, i, null, null, null));
+        }
+        given(consumer.partitionsFor(TOPIC)).willReturn(partitions);
+    }
+
+    private static SubscriptionResponse subscription(String id) {
+        SubscriptionResponse subscription = new SubscriptionResponse();
+        subscription.setId(id);
+        return subscription;
+    }
+
+    private static Dispatcher dispatcher(Dispatcher.Type type, String endpoint) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setType(type);
+        dispatcher.setEndpoint(endpoint);
+        return dispatcher;
+    }
+}
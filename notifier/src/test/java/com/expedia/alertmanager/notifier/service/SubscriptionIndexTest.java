@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.ExpressionTree;
+import com.expedia.alertmanager.model.Field;
+import com.expedia.alertmanager.model.Operand;
+import com.expedia.alertmanager.model.Operator;
+import com.expedia.alertmanager.model.SubscriptionChangeEvent;
+import com.expedia.alertmanager.model.SubscriptionResponse;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriptionIndexTest {
+
+    @Test
+    public void givenLabelsSatisfyingAllConditions_shouldMatchSubscription() {
+        SubscriptionIndex index = SubscriptionIndex.build(Arrays.asList(
+            subscription("1", operand("app", "search"), operand("env", "prod")),
+            subscription("2", operand("app", "search")),
+            subscription("3", operand("app", "shopping"))));
+
+        Map<String, String> labels = new HashMap<>();
+        labels.put("app", "search");
+        labels.put("env", "prod");
+        labels.put("region", "us-west-2");
+        List<SubscriptionResponse> matches = index.match(labels);
+        assertEquals(2, matches.size());
+        assertEquals("1", matches.get(0).getId());
+        assertEquals("2", matches.get(1).getId());
+    }
+
+    @Test
+    public void givenLabelsSatisfyingSomeConditions_shouldNotMatchSubscription() {
+        SubscriptionIndex index = SubscriptionIndex.build(Collections.singletonList(
+            subscription("1", operand("app", "search"), operand("env", "prod"))));
+
+        assertTrue(index.match(Collections.singletonMap("app", "search")).isEmpty());
+        assertTrue(index.match(Collections.singletonMap("app", "Search")).isEmpty());
+        assertTrue(index.match(Collections.emptyMap()).isEmpty());
+    }
+
+    @Test
+    public void givenSubscriptionWithoutConditions_shouldNotBeIndexed() {
+        SubscriptionResponse subscription = new SubscriptionResponse();
+        subscription.setId("1");
+        SubscriptionIndex index = SubscriptionIndex.build(Collections.singletonList(subscription));
+
+        assertEquals(0, index.size());
+        assertTrue(index.match(Collections.singletonMap("app", "search")).isEmpty());
+    }
+
+    @Test
+    public void givenSubscriptionChanges_shouldApplyThemToANewIndex() {
+        SubscriptionIndex index = SubscriptionIndex.build(Arrays.asList(
+            subscription("1", operand("app", "search")),
+            subscription("2", operand("app", "shopping"))));
+
+        SubscriptionIndex changedIndex = index.apply(Arrays.asList(
+            new SubscriptionChangeEvent("1", 2, SubscriptionChangeEvent.Operation.UPDATE,
+                subscription("1", operand("app", "booking"))),
+            new SubscriptionChangeEvent("2", 2, SubscriptionChangeEvent.Operation.DELETE, null),
+            new SubscriptionChangeEvent("3", 1, SubscriptionChangeEvent.Operation.CREATE,
+                subscription("3", operand("app", "search")))));
+
+        assertEquals(2, changedIndex.size());
+        assertEquals(index.getCreatedTime(), changedIndex.getCreatedTime());
+        assertEquals("3", changedIndex.match(Collections.singletonMap("app", "search")).get(0).getId());
+        assertEquals("1", changedIndex.match(Collections.singletonMap("app", "booking")).get(0).getId());
+        assertTrue(changedIndex.match(Collections.singletonMap("app", "shopping")).isEmpty());
+        //the original index is left unchanged
+        assertEquals("1", index.match(Collections.singletonMap("app", "search")).get(0).getId());
+    }
+
+    @Test
+    public void givenAChangeNotNewerThanTheAppliedOne_shouldSkipIt() {
+        SubscriptionIndex index = SubscriptionIndex.build(Collections.singletonList(
+            subscription("1", operand("app", "search"))));
+
+        SubscriptionIndex changedIndex = index.apply(Arrays.asList(
+            new SubscriptionChangeEvent("1", 3, SubscriptionChangeEvent.Operation.UPDATE,
+                subscription("1", operand("app", "booking"))),
+            new SubscriptionChangeEvent("1", 2, SubscriptionChangeEvent.Operation.UPDATE,
+                subscription("1", operand("app", "shopping")))));
+        changedIndex = changedIndex.apply(Collections.singletonList(
+            new SubscriptionChangeEvent("1", 3, SubscriptionChangeEvent.Operation.DELETE, null)));
+
+        assertEquals("1", changedIndex.match(Collections.singletonMap("app", "booking")).get(0).getId());
+        assertTrue(changedIndex.match(Collections.singletonMap("app", "shopping")).isEmpty());
+    }
+
+    @Test
+    public void givenAReloadedIndex_shouldKeepTheVersionsOfTheSubscriptionsStillPresent() {
+        SubscriptionIndex index = SubscriptionIndex.build(Arrays.asList(
+            subscription("1", operand("app", "search")),
+            subscription("2", operand("app", "shopping"))))
+            .apply(Arrays.asList(
+                new SubscriptionChangeEvent("1", 5, SubscriptionChangeEvent.Operation.UPDATE,
+                    subscription("1", operand("app", "booking"))),
+                new SubscriptionChangeEvent("2", 5, SubscriptionChangeEvent.Operation.DELETE, null)));
+
+        SubscriptionIndex reloadedIndex = SubscriptionIndex.build(Collections.singletonList(
+            subscription("1", operand("app", "booking")))).withVersionsOf(index);
+        reloadedIndex = reloadedIndex.apply(Arrays.asList(
+            new SubscriptionChangeEvent("1", 4, SubscriptionChangeEvent.Operation.UPDATE,
+                subscription("1", operand("app", "search"))),
+            new SubscriptionChangeEvent("2", 1, SubscriptionChangeEvent.Operation.CREATE,
+                subscription("2", operand("app", "shopping")))));
+
+        assertEquals("1", reloadedIndex.match(Collections.singletonMap("app", "booking")).get(0).getId());
+        //the deleted subscription isn't tracked anymore, so a later create of the same id is applied
+        assertEquals("2", reloadedIndex.match(Collections.singletonMap("app", "shopping")).get(0).getId());
+    }
+
+    private SubscriptionResponse subscription(String id, Operand... operands) {
+        ExpressionTree expression = new ExpressionTree();
+        expression.setOperator(Operator.AND);
+        expression.setOperands(Arrays.asList(operands));
+        SubscriptionResponse subscription = new SubscriptionResponse();
+        subscription.setId(id);
+        subscription.setExpression(expression);
+        return subscription;
+    }
+
+    private Operand operand(String key, String value) {
+        Operand operand = new Operand();
+        operand.setField(new Field(key, value));
+        return operand;
+    }
+}
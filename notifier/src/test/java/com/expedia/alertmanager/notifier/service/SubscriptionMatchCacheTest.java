@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.SubscriptionResponse;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.BDDMockito.given;
+
+@RunWith(SpringRunner.class)
+public class SubscriptionMatchCacheTest {
+
+    private SubscriptionMatchCache matchCache;
+    private MeterRegistry meterRegistry;
+
+    @Mock
+    private ApplicationConfig applicationConfig;
+
+    @Before
+    public void setUp() {
+        given(applicationConfig.getSubscriptionCacheMaxSize()).willReturn(10);
+        given(applicationConfig.getSubscriptionCacheTtlMs()).willReturn(60000L);
+        meterRegistry = new SimpleMeterRegistry();
+        matchCache = new SubscriptionMatchCache(applicationConfig, meterRegistry);
+    }
+
+    @Test
+    public void givenCachedLabels_shouldReturnTheMatchesForLabelsInAnyOrder() {
+        List<SubscriptionResponse> subscriptions = Collections.singletonList(new SubscriptionResponse());
+        Map<String, String> labels = new HashMap<>();
+        labels.put("app", "search");
+        labels.put("env", "prod");
+        assertNull(matchCache.get(labels));
+        matchCache.put(matchCache.getGeneration(), labels, subscriptions);
+
+        Map<String, String> sameLabels = new TreeMap<>(labels);
+        assertSame(subscriptions, matchCache.get(sameLabels));
+        assertEquals(1, meterRegistry.get("subscription.match.cache").tag("result", "hit").counter().count(), 0);
+        assertEquals(1, meterRegistry.get("subscription.match.cache").tag("result", "miss").counter().count(), 0);
+    }
+
+    @Test
+    public void whenInvalidatedWhileMatching_shouldNotCacheTheStaleMatches() {
+        Map<String, String> labels = Collections.singletonMap("app", "search");
+        matchCache.put(matchCache.getGeneration(), labels, Collections.emptyList());
+        long generation = matchCache.getGeneration();
+        matchCache.invalidate();
+        matchCache.put(generation, labels, Collections.emptyList());
+        assertNull(matchCache.get(labels));
+    }
+
+    @Test
+    public void whenTtlHasPassed_cachedMatchesExpire() {
+        given(applicationConfig.getSubscriptionCacheTtlMs()).willReturn(-1L);
+        Map<String, String> labels = Collections.singletonMap("app", "search");
+        matchCache.put(matchCache.getGeneration(), labels, Collections.emptyList());
+        assertNull(matchCache.get(labels));
+    }
+}
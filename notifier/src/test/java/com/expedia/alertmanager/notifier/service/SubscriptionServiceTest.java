@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.service;
+
+import com.expedia.alertmanager.model.ExpressionTree;
+import com.expedia.alertmanager.model.Field;
+import com.expedia.alertmanager.model.Operand;
+import com.expedia.alertmanager.model.Operator;
+import com.expedia.alertmanager.model.SubscriptionChangeEvent;
+import com.expedia.alertmanager.model.SubscriptionResponse;
+import com.expedia.alertmanager.notifier.config.ApplicationConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.BDDMockito.given;
+
+@RunWith(SpringRunner.class)
+public class SubscriptionServiceTest {
+
+    private static final String INDEX_URL = "http://subscriptions/all";
+
+    @Mock
+    private RestTemplate restTemplate;
+
+    @Mock
+    private ApplicationConfig applicationConfig;
+
+    @Mock
+    private SubscriptionMatchCache matchCache;
+
+    private SubscriptionService subscriptionService;
+
+    @Before
+    public void setUp() {
+        given(applicationConfig.isSubscriptionIndexEnabled()).willReturn(true);
+        given(applicationConfig.getSubscriptionIndexUrl()).willReturn(INDEX_URL);
+        given(applicationConfig.getSubscriptionIndexMaxStalenessMs()).willReturn(60000L);
+        subscriptionService = new SubscriptionService(restTemplate, applicationConfig, matchCache);
+    }
+
+    @Test
+    public void givenChangesReceivedWhileReloading_shouldApplyThemToTheReloadedIndex() {
+        givenAllSubscriptions(() -> {
+            //the reload fetched the subscriptions before this change was made
+            subscriptionService.onSubscriptionChanges(Collections.singletonList(
+                new SubscriptionChangeEvent("2", 1, SubscriptionChangeEvent.Operation.CREATE,
+                    subscription("2", "shopping"))));
+            return Collections.singletonList(subscription("1", "search"));
+        });
+        subscriptionService.refreshSubscriptionIndex();
+
+        assertEquals("1", match("search").get(0).getId());
+        assertEquals("2", match("shopping").get(0).getId());
+    }
+
+    @Test
+    public void givenAnUpdateReceivedWhileReloading_shouldApplyItToTheReloadedIndex() {
+        givenAllSubscriptions(() -> Collections.singletonList(subscription("1", "search")));
+        subscriptionService.refreshSubscriptionIndex();
+
+        givenAllSubscriptions(() -> {
+            subscriptionService.onSubscriptionChanges(Collections.singletonList(
+                new SubscriptionChangeEvent("1", 2, SubscriptionChangeEvent.Operation.UPDATE,
+                    subscription("1", "booking"))));
+            return Collections.singletonList(subscription("1", "search"));
+        });
+        subscriptionService.refreshSubscriptionIndex();
+
+        assertEquals("1", match("booking").get(0).getId());
+        assertTrue(match("search").isEmpty());
+    }
+
+    @Test
+    public void givenADeleteReceivedWhileReloading_shouldApplyItToTheReloadedIndex() {
+        givenAllSubscriptions(() -> Collections.singletonList(subscription("1", "search")));
+        subscriptionService.refreshSubscriptionIndex();
+
+        givenAllSubscriptions(() -> {
+            subscriptionService.onSubscriptionChanges(Collections.singletonList(
+                new SubscriptionChangeEvent("1", 2, SubscriptionChangeEvent.Operation.DELETE, null)));
+            return Collections.singletonList(subscription("1", "search"));
+        });
+        subscriptionService.refreshSubscriptionIndex();
+
+        assertTrue(match("search").isEmpty());
+    }
+
+    @Test
+    public void givenAReload_shouldSkipChangesOlderThanTheOnesAlreadyApplied() {
+        givenAllSubscriptions(() -> Collections.singletonList(subscription("1", "search")));
+        subscriptionService.refreshSubscriptionIndex();
+        subscriptionService.onSubscriptionChanges(Collections.singletonList(
+            new SubscriptionChangeEvent("1", 3, SubscriptionChangeEvent.Operation.UPDATE,
+                subscription("1", "booking"))));
+
+        givenAllSubscriptions(() -> Collections.singletonList(subscription("1", "booking")));
+        subscriptionService.refreshSubscriptionIndex();
+        subscriptionService.onSubscriptionChanges(Collections.singletonList(
+            new SubscriptionChangeEvent("1", 2, SubscriptionChangeEvent.Operation.UPDATE,
+                subscription("1", "search"))));
+
+        assertEquals("1", match("booking").get(0).getId());
+        assertTrue(match("search").isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenAllSubscriptions(Supplier<List<SubscriptionResponse>> fetch) {
+        given(restTemplate.exchange(eq(INDEX_URL), eq(HttpMethod.GET), isNull(),
+            any(ParameterizedTypeReference.class)))
+            .willAnswer(invocation -> ResponseEntity.ok(fetch.get()));
+    }
+
+    private List<SubscriptionResponse> match(String app) {
+        return subscriptionService.getSubscriptions(Collections.singletonMap("app", app));
+    }
+
+    private SubscriptionResponse subscription(String id, String app) {
+        Operand operand = new Operand();
+        operand.setField(new Field("app", app));
+        ExpressionTree expression = new ExpressionTree();
+        expression.setOperator(Operator.AND);
+        expression.setOperands(Arrays.asList(operand));
+        SubscriptionResponse subscription = new SubscriptionResponse();
+        subscription.setId(id);
+        subscription.setExpression(expression);
+        return subscription;
+    }
+}
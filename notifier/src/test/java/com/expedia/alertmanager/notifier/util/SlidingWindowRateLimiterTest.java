@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.notifier.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlidingWindowRateLimiterTest {
+
+    @Test
+    public void whenLimitIsReachedInWindow_permitsAreDeniedUntilWindowSlides() {
+        AtomicLong now = new AtomicLong(1000);
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(1000, 10, now::get);
+        assertTrue(limiter.tryAcquire(2));
+        now.addAndGet(500);
+        assertTrue(limiter.tryAcquire(2));
+        assertFalse(limiter.tryAcquire(2));
+
+        //first permit leaves the window, second one is still in it
+        now.addAndGet(600);
+        assertTrue(limiter.tryAcquire(2));
+        assertFalse(limiter.tryAcquire(2));
+
+        now.addAndGet(1000);
+        assertTrue(limiter.tryAcquire(2));
+    }
+
+    @Test
+    public void hasPermitDoesNotTakeAPermit() {
+        AtomicLong now = new AtomicLong(1000);
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(1000, 10, now::get);
+        assertTrue(limiter.hasPermit(1));
+        assertTrue(limiter.hasPermit(1));
+        limiter.acquire();
+        assertFalse(limiter.hasPermit(1));
+        assertFalse(limiter.tryAcquire(1));
+    }
+}
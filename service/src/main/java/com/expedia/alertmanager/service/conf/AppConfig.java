@@ -16,6 +16,7 @@
 package com.expedia.alertmanager.service.conf;
 
 import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.SubscriptionChangeEvent;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -36,6 +37,12 @@ public class AppConfig {
         return new KafkaTemplate<>(producerFactory(kafkaConfig));
     }
 
+    //shares the producer of the alerts, the json serializer handles both types of values
+    @Bean
+    public KafkaTemplate<String, SubscriptionChangeEvent> subscriptionChangeKafkaTemplate(KafkaConfig kafkaConfig) {
+        return new KafkaTemplate(producerFactory(kafkaConfig));
+    }
+
     @Value("${mail.additional-validator-expression:}")
     private String additionalEmailValidatorExp;
 
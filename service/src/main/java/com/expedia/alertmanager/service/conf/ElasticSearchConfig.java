@@ -18,10 +18,15 @@ package com.expedia.alertmanager.service.conf;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.google.common.base.Supplier;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.searchbox.client.JestClient;
 import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.config.HttpClientConfig;
 import lombok.Data;
+import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -45,6 +50,11 @@ public class ElasticSearchConfig {
     private boolean createIndexIfNotFound;
     @Value("${es.doctype}")
     private String docType;
+    //the whole subscription set is fetched with a scroll, one page at a time
+    @Value("${es.scroll.page.size:1000}")
+    private int scrollPageSize;
+    @Value("${es.scroll.keep.alive:1m}")
+    private String scrollKeepAlive;
     @Value("${es.host}")
     private String urls;
     @Value("${es.connection.timeout}")
@@ -53,6 +63,9 @@ public class ElasticSearchConfig {
     private int maxConnectionIdleTime;
     @Value("${es.max.total.connection}")
     private int maxTotalConnection;
+    //all requests go to the same es endpoint, so the per route limit defaults to the pool size
+    @Value("${es.max.total.connection.per.route:${es.max.total.connection}}")
+    private int maxTotalConnectionPerRoute;
     @Value("${es.read.timeout}")
     private int readTimeout;
     @Value("${es.request.compression:false}")
@@ -66,8 +79,12 @@ public class ElasticSearchConfig {
     @Value("${es.config.aws-region:@null}")
     private String awsRegion;
 
-    @Bean
-    JestClientFactory clientFactory(ElasticSearchConfig elasticSearchConfig) {
+    /**
+     * Long lived client shared by all the ES interactions, so connections are pooled and kept alive across requests.
+     * The client is closed along with its connection pool when the application context shuts down.
+     */
+    @Bean(destroyMethod = "close")
+    JestClient jestClient(ElasticSearchConfig elasticSearchConfig, MeterRegistry meterRegistry) {
         Optional<AWSSigningRequestInterceptor> requestInterceptor =
             needsAWSIAMAuth ? getAWSRequestSignerInterceptor() : Optional.empty();
 
@@ -82,6 +99,14 @@ public class ElasticSearchConfig {
                 requestInterceptor.ifPresent(interceptor -> builder.addInterceptorLast(interceptor));
                 return builder;
             }
+            @Override
+            protected HttpClientConnectionManager getConnectionManager() {
+                HttpClientConnectionManager connectionManager = super.getConnectionManager();
+                if (connectionManager instanceof PoolingHttpClientConnectionManager) {
+                    bindConnectionPoolMetrics((PoolingHttpClientConnectionManager) connectionManager, meterRegistry);
+                }
+                return connectionManager;
+            }
         };
 
         HttpClientConfig.Builder builder =
@@ -92,6 +117,7 @@ public class ElasticSearchConfig {
                 .maxConnectionIdleTime(elasticSearchConfig.getMaxConnectionIdleTime(),
                     TimeUnit.SECONDS)
                 .maxTotalConnection(elasticSearchConfig.getMaxTotalConnection())
+                .defaultMaxTotalConnectionPerRoute(elasticSearchConfig.getMaxTotalConnectionPerRoute())
                 .readTimeout(elasticSearchConfig.getReadTimeout())
                 .requestCompressionEnabled(elasticSearchConfig.isRequestCompression())
                 .discoveryFrequency(1L, TimeUnit.MINUTES);
@@ -102,7 +128,19 @@ public class ElasticSearchConfig {
         }
 
         factory.setHttpClientConfig(builder.build());
-        return factory;
+        return factory.getObject();
+    }
+
+    private void bindConnectionPoolMetrics(PoolingHttpClientConnectionManager connectionManager,
+                                           MeterRegistry meterRegistry) {
+        Gauge.builder("es.client.connections", connectionManager, pool -> pool.getTotalStats().getLeased())
+            .tag("state", "leased").register(meterRegistry);
+        Gauge.builder("es.client.connections", connectionManager, pool -> pool.getTotalStats().getAvailable())
+            .tag("state", "available").register(meterRegistry);
+        Gauge.builder("es.client.connections", connectionManager, pool -> pool.getTotalStats().getPending())
+            .tag("state", "pending").register(meterRegistry);
+        Gauge.builder("es.client.connections", connectionManager, pool -> pool.getTotalStats().getMax())
+            .tag("state", "max").register(meterRegistry);
     }
 
     private Optional<AWSSigningRequestInterceptor> getAWSRequestSignerInterceptor() {
@@ -28,6 +28,8 @@ public class KafkaConfig {
     private String producerBootstrapServer;
     @Value("${kafka.producer.topic}")
     private String producerTopic;
+    @Value("${kafka.producer.subscription-changes-topic:subscription-changes}")
+    private String subscriptionChangesTopic;
     @Value("${kafka.producer.client.id}")
     private String clientId;
     @Value("${kafka.producer.key.serializer}")
@@ -51,4 +53,8 @@ public class KafkaConfig {
         return this.producerTopic;
     }
 
+    public String getSubscriptionChangesTopic() {
+        return this.subscriptionChangesTopic;
+    }
+
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.service.dao;
+
+import com.expedia.alertmanager.service.conf.ElasticSearchConfig;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.indices.mapping.GetMapping;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory copy of the fields mapped in the subscription index.
+ * Mappings are only ever added, so once a field is known to be mapped there is no need to ask ES again.
+ * The mappings are loaded lazily and reloaded after {@link #invalidate()}.
+ */
+@Component
+@Slf4j
+public class FieldMappingCache {
+
+    @Autowired
+    private JestClient client;
+
+    @Autowired
+    private ElasticSearchConfig elasticSearchConfig;
+
+    private volatile Set<String> mappedFields;
+
+    /**
+     * Finds the fields that don't have a mapping in the subscription index yet.
+     * @param fields fields used by subscriptions
+     * @return fields without an existing mapping
+     */
+    public Set<String> getFieldsWithoutMapping(Set<String> fields) {
+        Set<String> missingFields = new HashSet<>(fields);
+        missingFields.removeAll(getMappedFields());
+        return missingFields;
+    }
+
+    /**
+     * Records fields whose mappings were added to the subscription index.
+     * @param fields newly mapped fields
+     */
+    public synchronized void addMappedFields(Set<String> fields) {
+        Set<String> current = mappedFields;
+        if (current == null || fields.isEmpty()) {
+            return;
+        }
+        Set<String> updated = new HashSet<>(current);
+        updated.addAll(fields);
+        mappedFields = Collections.unmodifiableSet(updated);
+    }
+
+    /**
+     * Drops the cached mappings, the next lookup reloads them from ES.
+     */
+    public synchronized void invalidate() {
+        mappedFields = null;
+    }
+
+    private Set<String> getMappedFields() {
+        Set<String> current = mappedFields;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (mappedFields == null) {
+                mappedFields = loadMappedFields();
+                log.info("Loaded {} field mappings of index {}", mappedFields.size(),
+                    elasticSearchConfig.getIndexName());
+            }
+            return mappedFields;
+        }
+    }
+
+    private Set<String> loadMappedFields() {
+        try {
+            GetMapping getMapping = new GetMapping.Builder()
+                .addIndex(elasticSearchConfig.getIndexName())
+                .addType(elasticSearchConfig.getDocType())
+                .build();
+            JestResult result = client.execute(getMapping);
+            if (!result.isSucceeded()) {
+                log.error("Response failed with message: " + result.getErrorMessage());
+                throw new RuntimeException(result.getErrorMessage());
+            }
+            return Collections.unmodifiableSet(result.getJsonObject().get(elasticSearchConfig.getIndexName())
+                .getAsJsonObject().get("mappings")
+                .getAsJsonObject().get(elasticSearchConfig.getDocType()).getAsJsonObject()
+                .get("properties").getAsJsonObject()
+                .entrySet().stream().map(en -> en.getKey()).collect(Collectors.toSet()));
+        } catch (IOException e) {
+            log.error("Get index mappings failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+}
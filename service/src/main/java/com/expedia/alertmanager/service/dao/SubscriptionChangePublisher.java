@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.service.dao;
+
+import com.expedia.alertmanager.model.SubscriptionChangeEvent;
+import com.expedia.alertmanager.service.conf.KafkaConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Publishes subscription changes to kafka, keyed by subscription id so the changes of a subscription are
+ * consumed in order. Consumers like notifier apply them to their local subscription indexes.
+ */
+@Service
+@Slf4j
+public class SubscriptionChangePublisher {
+
+    private final KafkaTemplate<String, SubscriptionChangeEvent> kafkaTemplate;
+    private final String topic;
+
+    @Autowired
+    public SubscriptionChangePublisher(KafkaConfig kafkaConfig,
+                                       KafkaTemplate<String, SubscriptionChangeEvent> kafkaTemplate) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.topic = kafkaConfig.getSubscriptionChangesTopic();
+    }
+
+    /**
+     * Publishes the change asynchronously. The subscription is already stored, so a failed publish is logged
+     * and consumers catch up with their next full reload of the subscriptions.
+     * @param event subscription change
+     */
+    public void publish(SubscriptionChangeEvent event) {
+        kafkaTemplate.send(topic, event.getId(), event).addCallback(
+            result -> log.debug("Published subscription change {}", event),
+            e -> log.error("Publishing subscription change " + event + " failed", e));
+    }
+}
@@ -19,25 +19,34 @@ import com.expedia.alertmanager.model.BaseSubscription;
 import com.expedia.alertmanager.model.CreateSubscriptionRequest;
 import com.expedia.alertmanager.model.ExpressionTree;
 import com.expedia.alertmanager.model.SearchSubscriptionRequest;
+import com.expedia.alertmanager.model.SubscriptionChangeEvent;
 import com.expedia.alertmanager.model.SubscriptionResponse;
 import com.expedia.alertmanager.model.UpdateSubscriptionRequest;
+import com.expedia.alertmanager.model.User;
 import com.expedia.alertmanager.service.conf.ElasticSearchConfig;
 import com.expedia.alertmanager.service.model.SubscriptionEntity;
 import com.expedia.alertmanager.service.util.QueryUtil;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import io.searchbox.client.JestClient;
-import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.JestResult;
 import io.searchbox.core.Bulk;
 import io.searchbox.core.BulkResult;
+import io.searchbox.core.ClearScroll;
 import io.searchbox.core.Delete;
 import io.searchbox.core.DocumentResult;
 import io.searchbox.core.Get;
 import io.searchbox.core.Index;
+import io.searchbox.core.MultiGet;
+import io.searchbox.core.MultiSearch;
+import io.searchbox.core.MultiSearchResult;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
-import io.searchbox.indices.mapping.GetMapping;
+import io.searchbox.core.SearchScroll;
 import io.searchbox.indices.mapping.PutMapping;
+import io.searchbox.params.Parameters;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.search.join.ScoreMode;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -51,6 +60,7 @@ import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -65,7 +75,7 @@ public class SubscriptionStoreService {
     private final Gson GSON = new Gson();
 
     @Autowired
-    private JestClientFactory clientFactory;
+    private JestClient client;
 
     @Autowired
     private ElasticSearchConfig elasticSearchConfig;
@@ -73,6 +83,12 @@ public class SubscriptionStoreService {
     @Autowired
     private QueryUtil queryUtil;
 
+    @Autowired
+    private FieldMappingCache fieldMappingCache;
+
+    @Autowired
+    private SubscriptionChangePublisher subscriptionChangePublisher;
+
     public List<String> createSubscriptions(List<CreateSubscriptionRequest> createSubRqs) {
         /*
             Fields/Conditions in the expression are dynamic.
@@ -83,35 +99,37 @@ public class SubscriptionStoreService {
             elastic search.
          */
         Set<String> fields = getFields(createSubRqs);
-        Set<String> newFieldMappings = getFieldsWithoutExistingMapping(fields);
-        updateIndexMappings(newFieldMappings);
+        ensureFieldMappings(fields);
 
         //create subscriptions
         return storeSubscriptions(createSubRqs);
     }
 
     private List<String> storeSubscriptions(List<CreateSubscriptionRequest> createSubRqs) {
+        long now = Instant.now().toEpochMilli();
         Bulk.Builder bulkIndexBuilder = new Bulk.Builder();
         for (CreateSubscriptionRequest rq : createSubRqs) {
-            Index indexReq = buildCreateSubscriptionRequest(rq);
+            Index indexReq = buildCreateSubscriptionRequest(rq, now);
             bulkIndexBuilder.addAction(indexReq);
         }
-        JestClient client = clientFactory.getObject();
         try {
             BulkResult result = client.execute(bulkIndexBuilder.build());
             validateResponseStatus(result);
-            return result.getItems().stream()
+            List<BulkResult.BulkResultItem> items = result.getItems();
+            for (int i = 0; i < items.size(); i++) {
+                CreateSubscriptionRequest rq = createSubRqs.get(i);
+                publishChange(items.get(i), SubscriptionChangeEvent.Operation.CREATE,
+                    buildSubscriptionResponse(items.get(i).id, rq, rq.getUser(), now, now));
+            }
+            return items.stream()
                 .map(item -> item.id).collect(Collectors.toList());
         } catch (IOException e) {
             log.error("Store subscriptions failed", e);
             throw new RuntimeException(e);
-        } finally {
-            closeConnection(client);
         }
     }
 
-    private Index buildCreateSubscriptionRequest(CreateSubscriptionRequest createSubRq) {
-        long now = Instant.now().toEpochMilli();
+    private Index buildCreateSubscriptionRequest(CreateSubscriptionRequest createSubRq, long now) {
         SubscriptionEntity subscriptionEntity = new SubscriptionEntity(createSubRq.getName(),
             createSubRq.getUser(),
             createSubRq.getDispatchers(),
@@ -135,30 +153,36 @@ public class SubscriptionStoreService {
 
     public void updateSubscriptions(List<UpdateSubscriptionRequest> updateSubscriptionRequests) {
         Set<String> fields = getFields(updateSubscriptionRequests);
-        Set<String> fieldsWithoutExistingMapping = getFieldsWithoutExistingMapping(fields);
-        updateIndexMappings(fieldsWithoutExistingMapping);
+        ensureFieldMappings(fields);
 
+        Map<String, SubscriptionResponse> existingSubscriptions = getSubscriptions(updateSubscriptionRequests.stream()
+            .map(UpdateSubscriptionRequest::getId).collect(Collectors.toSet()));
+        long now = Instant.now().toEpochMilli();
         Bulk.Builder bulkIndexBuilder = new Bulk.Builder();
         for (UpdateSubscriptionRequest rq : updateSubscriptionRequests) {
-            SubscriptionResponse existingSubscription = getSubscription(rq.getId());
-            Index indexReq = buildUpdateSubscriptionRequest(rq, existingSubscription);
+            SubscriptionResponse existingSubscription = existingSubscriptions.get(rq.getId());
+            Index indexReq = buildUpdateSubscriptionRequest(rq, existingSubscription, now);
             bulkIndexBuilder.addAction(indexReq);
         }
-        JestClient client = clientFactory.getObject();
         try {
-            JestResult result = client.execute(bulkIndexBuilder.build());
+            BulkResult result = client.execute(bulkIndexBuilder.build());
             validateResponseStatus(result);
+            List<BulkResult.BulkResultItem> items = result.getItems();
+            for (int i = 0; i < items.size(); i++) {
+                UpdateSubscriptionRequest rq = updateSubscriptionRequests.get(i);
+                SubscriptionResponse existingSubscription = existingSubscriptions.get(rq.getId());
+                publishChange(items.get(i), SubscriptionChangeEvent.Operation.UPDATE,
+                    buildSubscriptionResponse(rq.getId(), rq, existingSubscription.getUser(),
+                        existingSubscription.getCreatedTime(), now));
+            }
         } catch (IOException e) {
             log.error("Update subscriptions failed", e);
             throw new RuntimeException(e);
-        } finally {
-            closeConnection(client);
         }
     }
 
     private Index buildUpdateSubscriptionRequest(UpdateSubscriptionRequest updateSubscriptionReq,
-                                                 SubscriptionResponse existingSubscription) {
-        long now = Instant.now().toEpochMilli();
+                                                 SubscriptionResponse existingSubscription, long now) {
         SubscriptionEntity subscriptionEntity = new SubscriptionEntity(
             updateSubscriptionReq.getName(),
             existingSubscription.getUser(),
@@ -168,6 +192,26 @@ public class SubscriptionStoreService {
             .type(elasticSearchConfig.getDocType()).id(updateSubscriptionReq.getId()).build();
     }
 
+    private SubscriptionResponse buildSubscriptionResponse(String id, BaseSubscription subRq, User user,
+                                                           long createdTime, long lastModifiedTime) {
+        SubscriptionResponse response = new SubscriptionResponse();
+        response.setId(id);
+        response.setName(subRq.getName());
+        response.setDispatchers(subRq.getDispatchers());
+        response.setExpression(subRq.getExpression());
+        response.setUser(user);
+        response.setCreatedTime(createdTime);
+        response.setLastModifiedTime(lastModifiedTime);
+        return response;
+    }
+
+    private void publishChange(BulkResult.BulkResultItem item, SubscriptionChangeEvent.Operation operation,
+                               SubscriptionResponse subscription) {
+        long version = item.version == null ? 0 : item.version;
+        subscriptionChangePublisher.publish(new SubscriptionChangeEvent(subscription.getId(), version, operation,
+            subscription));
+    }
+
     private void validateResponseStatus(JestResult result) {
         if (!result.isSucceeded()) {
             log.error("Response failed with message: " + result.getErrorMessage());
@@ -175,8 +219,28 @@ public class SubscriptionStoreService {
         }
     }
 
+    /*
+        Known field mappings are served from the cache, ES is only asked when a field is not known to be mapped.
+        If adding the mappings fails, the cached copy may be out of date (e.g. the field was mapped by another
+        instance in the meantime), so it is reloaded and the fields that are still missing are mapped again.
+     */
+    private void ensureFieldMappings(Set<String> fields) {
+        Set<String> newFieldMappings = fieldMappingCache.getFieldsWithoutMapping(fields);
+        if (newFieldMappings.isEmpty()) {
+            return;
+        }
+        try {
+            updateIndexMappings(newFieldMappings);
+        } catch (RuntimeException e) {
+            log.warn("Update index mappings failed, retrying with reloaded mappings", e);
+            fieldMappingCache.invalidate();
+            newFieldMappings = fieldMappingCache.getFieldsWithoutMapping(fields);
+            updateIndexMappings(newFieldMappings);
+        }
+        fieldMappingCache.addMappedFields(newFieldMappings);
+    }
+
     private void updateIndexMappings(Set<String> newFieldMappings) {
-        JestClient client = clientFactory.getObject();
         try {
             if (!newFieldMappings.isEmpty()) {
                 PutMapping builder = buildUpdateMappingsRequest(newFieldMappings);
@@ -186,8 +250,6 @@ public class SubscriptionStoreService {
         } catch (IOException e) {
             log.error("Update index mappings failed", e);
             throw new RuntimeException(e);
-        } finally {
-            closeConnection(client);
         }
     }
 
@@ -204,59 +266,62 @@ public class SubscriptionStoreService {
             elasticSearchConfig.getDocType(), jsonMap).build();
     }
 
-    private Set<String> getFieldsWithoutExistingMapping(Set<String> fields) {
-        JestClient client = clientFactory.getObject();
+    public List<SubscriptionResponse> matchSubscriptions(Map<String, String> labels) {
         try {
-            GetMapping getMapping = buildGetMappingRequest();
-            JestResult result = client.execute(getMapping);
-            validateResponseStatus(result);
-            Set<String> mappedFields = result.getJsonObject().get(elasticSearchConfig.getIndexName())
-                .getAsJsonObject().get("mappings")
-                .getAsJsonObject().get(elasticSearchConfig.getDocType()).getAsJsonObject()
-                .get("properties").getAsJsonObject()
-                .entrySet().stream().map(en -> en.getKey()).collect(Collectors.toSet());
-            fields.removeAll(mappedFields);
-            return fields;
+            long startTime = System.currentTimeMillis();
+            List<SubscriptionResponse> responses = getSubscriptionResponses(buildPercolateSearch(labels));
+            long stopTime = System.currentTimeMillis();
+            log.info("Search elapsed time:{}", stopTime - startTime);
+            return responses;
         } catch (IOException e) {
-            log.error("Get index mappings failed", e);
-            throw new RuntimeException(e);
-        } finally {
-            closeConnection(client);
+            log.error("Match subscriptions failed", e);
+            throw new RuntimeException("Match subscriptions failed", e);
         }
     }
 
-    private GetMapping buildGetMappingRequest() {
-        return new GetMapping.Builder()
-                    .addIndex(elasticSearchConfig.getIndexName())
-                    .addType(elasticSearchConfig.getDocType())
-                    .build();
-    }
-
-    public List<SubscriptionResponse> matchSubscriptions(Map<String, String> labels) {
-        JestClient client = clientFactory.getObject();
+    /**
+     * Matches a batch of label sets with a single multi search request, one percolate search per label set.
+     * @param labelSets labels of each document to be matched
+     * @return matching subscriptions of each document, indexed by the document slot in the request
+     */
+    public List<List<SubscriptionResponse>> matchSubscriptions(List<Map<String, String>> labelSets) {
         try {
-            XContentBuilder xContent = XContentFactory.jsonBuilder();
-            xContent.map(labels);
-            PercolateQueryBuilder percolateQuery =
-                    new PercolateQueryBuilder(SubscriptionEntity.QUERY_KEYWORD, elasticSearchConfig.getDocType(), xContent.bytes(),
-                            XContentType.JSON);
-            SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-            searchSourceBuilder.query(percolateQuery);
+            List<Search> searches = new ArrayList<>(labelSets.size());
+            for (Map<String, String> labels : labelSets) {
+                searches.add(buildSearch(buildPercolateSearch(labels)));
+            }
             long startTime = System.currentTimeMillis();
-            List<SubscriptionResponse> responses = getSubscriptionResponses(client, searchSourceBuilder);
+            MultiSearchResult result = client.execute(new MultiSearch.Builder(searches).build());
+            validateResponseStatus(result);
+            List<List<SubscriptionResponse>> responses = new ArrayList<>(labelSets.size());
+            for (MultiSearchResult.MultiSearchResponse response : result.getResponses()) {
+                if (response.isError) {
+                    log.error("Response failed with message: " + response.errorMessage);
+                    throw new RuntimeException(response.errorMessage);
+                }
+                responses.add(getSubscriptionResponses(response.searchResult));
+            }
             long stopTime = System.currentTimeMillis();
-            log.info("Search elapsed time:{}", stopTime - startTime);
+            log.info("Batch search of {} documents elapsed time:{}", labelSets.size(), stopTime - startTime);
             return responses;
         } catch (IOException e) {
-            log.error("Match subscriptions failed", e);
-            throw new RuntimeException("Match subscriptions failed", e);
-        } finally {
-            closeConnection(client);
+            log.error("Batch match subscriptions failed", e);
+            throw new RuntimeException("Batch match subscriptions failed", e);
         }
     }
 
+    private SearchSourceBuilder buildPercolateSearch(Map<String, String> labels) throws IOException {
+        XContentBuilder xContent = XContentFactory.jsonBuilder();
+        xContent.map(labels);
+        PercolateQueryBuilder percolateQuery =
+                new PercolateQueryBuilder(SubscriptionEntity.QUERY_KEYWORD, elasticSearchConfig.getDocType(), xContent.bytes(),
+                        XContentType.JSON);
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(percolateQuery);
+        return searchSourceBuilder;
+    }
+
     public List<SubscriptionResponse> searchSubscriptions(SearchSubscriptionRequest searchRequest) {
-        JestClient client = clientFactory.getObject();
         try {
             SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
             searchSourceBuilder.query(
@@ -266,17 +331,70 @@ public class SubscriptionStoreService {
                         searchRequest.getUserId())), ScoreMode.None));
             //FIXME setting default result set size to 200 until we have pagination.
             searchSourceBuilder.size(200);
-            return getSubscriptionResponses(client, searchSourceBuilder);
+            return getSubscriptionResponses(searchSourceBuilder);
         } catch (IOException e) {
             log.error("Search subscriptions failed", e);
             throw new RuntimeException("Search subscriptions failed", e);
+        }
+    }
+
+    /*
+        Scrolls through the whole subscription index. Fails instead of returning a partial set when fewer subscriptions
+        than the scroll total are read, so a partial subscription index never gets installed by the notifier.
+     */
+    public List<SubscriptionResponse> getAllSubscriptions() {
+        String scrollId = null;
+        try {
+            SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+            searchSourceBuilder.query(QueryBuilders.matchAllQuery());
+            searchSourceBuilder.size(elasticSearchConfig.getScrollPageSize());
+            searchSourceBuilder.sort("_doc");
+            Search search = new Search.Builder(searchSourceBuilder.toString())
+                .addIndex(elasticSearchConfig.getIndexName()).addType(elasticSearchConfig.getDocType())
+                .setParameter(Parameters.SCROLL, elasticSearchConfig.getScrollKeepAlive()).build();
+            JestResult result = client.execute(search);
+            validateResponseStatus(result);
+            long total = result.getJsonObject().getAsJsonObject("hits").get("total").getAsLong();
+            List<SubscriptionResponse> subscriptions = new ArrayList<>();
+            JsonArray hits;
+            while ((hits = result.getJsonObject().getAsJsonObject("hits").getAsJsonArray("hits")).size() > 0) {
+                for (JsonElement hit : hits) {
+                    JsonObject hitObject = hit.getAsJsonObject();
+                    subscriptions.add(getSubscriptionResponse(hitObject.get("_source").toString(),
+                        hitObject.get("_id").getAsString()));
+                }
+                scrollId = result.getJsonObject().get("_scroll_id").getAsString();
+                result = client.execute(new SearchScroll.Builder(scrollId, elasticSearchConfig.getScrollKeepAlive())
+                    .build());
+                validateResponseStatus(result);
+            }
+            if (subscriptions.size() < total) {
+                log.error("Get all subscriptions read " + subscriptions.size() + " of " + total + " subscriptions");
+                throw new RuntimeException("Get all subscriptions read " + subscriptions.size() + " of " + total
+                    + " subscriptions");
+            }
+            return subscriptions;
+        } catch (IOException e) {
+            log.error("Get all subscriptions failed", e);
+            throw new RuntimeException("Get all subscriptions failed", e);
         } finally {
-            closeConnection(client);
+            clearScroll(scrollId);
+        }
+    }
+
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        try {
+            client.execute(new ClearScroll.Builder().addScrollId(scrollId).build());
+        } catch (IOException | RuntimeException e) {
+            //the scroll expires after its keep alive anyway
+            log.warn("Clearing scroll failed", e);
         }
     }
 
     public SubscriptionResponse getSubscription(String id) {
-        JestClient client = clientFactory.getObject();
         Get get = new Get.Builder(elasticSearchConfig.getIndexName(), id)
             .type(elasticSearchConfig.getDocType()).build();
         try {
@@ -286,13 +404,36 @@ public class SubscriptionStoreService {
         } catch (IOException e) {
             log.error("Get subscription with id " + id + " failed", e);
             throw new RuntimeException(e);
-        } finally {
-            closeConnection(client);
+        }
+    }
+
+    /*
+        Fetches the given subscriptions with a single multi get request and fails if any of them doesn't exist.
+     */
+    private Map<String, SubscriptionResponse> getSubscriptions(Set<String> ids) {
+        MultiGet multiGet = new MultiGet.Builder.ById(elasticSearchConfig.getIndexName(), elasticSearchConfig.getDocType())
+            .addId(ids).build();
+        try {
+            JestResult result = client.execute(multiGet);
+            validateResponseStatus(result);
+            Map<String, SubscriptionResponse> subscriptions = new HashMap<>();
+            for (JsonElement doc : result.getJsonObject().getAsJsonArray("docs")) {
+                JsonObject docObject = doc.getAsJsonObject();
+                String id = docObject.get("_id").getAsString();
+                if (!docObject.has("found") || !docObject.get("found").getAsBoolean()) {
+                    log.error("Subscription with id " + id + " not found");
+                    throw new RuntimeException("Subscription with id " + id + " not found");
+                }
+                subscriptions.put(id, getSubscriptionResponse(docObject.get("_source").toString(), id));
+            }
+            return subscriptions;
+        } catch (IOException e) {
+            log.error("Get subscriptions with ids " + ids + " failed", e);
+            throw new RuntimeException(e);
         }
     }
 
     public void deleteSubscription(String id) {
-        JestClient client = clientFactory.getObject();
         try {
             DocumentResult result = client.execute(new Delete.Builder(id)
                 .index(elasticSearchConfig.getIndexName())
@@ -300,11 +441,12 @@ public class SubscriptionStoreService {
                 .id(id)
                 .build());
             validateResponseStatus(result);
+            JsonElement version = result.getJsonObject().get("_version");
+            subscriptionChangePublisher.publish(new SubscriptionChangeEvent(id,
+                version == null ? 0 : version.getAsLong(), SubscriptionChangeEvent.Operation.DELETE, null));
         } catch (IOException e) {
             log.error("Delete subscription with id " + id + " failed", e);
             throw new RuntimeException(e);
-        } finally {
-            closeConnection(client);
         }
     }
 
@@ -321,24 +463,23 @@ public class SubscriptionStoreService {
         return response;
     }
 
-    private List<SubscriptionResponse> getSubscriptionResponses(JestClient client,
-                                                                SearchSourceBuilder searchSourceBuilder)
+    private List<SubscriptionResponse> getSubscriptionResponses(SearchSourceBuilder searchSourceBuilder)
         throws IOException {
-        SearchResult result = client.execute(new Search.Builder(searchSourceBuilder.toString())
-            .addIndex(elasticSearchConfig.getIndexName()).addType(elasticSearchConfig.getDocType()).build());
+        SearchResult result = client.execute(buildSearch(searchSourceBuilder));
         validateResponseStatus(result);
+        return getSubscriptionResponses(result);
+    }
+
+    private List<SubscriptionResponse> getSubscriptionResponses(SearchResult result) {
         List<SearchResult.Hit<Object, Void>> hits = result.getHits(Object.class);
         return hits.stream()
             .map(hit -> getSubscriptionResponse(GSON.toJson(hit.source), hit.id))
             .collect(Collectors.toList());
     }
 
-    private void closeConnection(JestClient client) {
-        try {
-            client.close();
-        } catch (IOException e) {
-            log.error("Couldn't close the ES connection", e);
-        }
+    private Search buildSearch(SearchSourceBuilder searchSourceBuilder) {
+        return new Search.Builder(searchSourceBuilder.toString())
+            .addIndex(elasticSearchConfig.getIndexName()).addType(elasticSearchConfig.getDocType()).build();
     }
 
 }
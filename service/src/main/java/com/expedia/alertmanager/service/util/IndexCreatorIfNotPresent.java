@@ -4,7 +4,6 @@ import com.expedia.alertmanager.service.conf.ElasticSearchConfig;
 import com.google.gson.JsonObject;
 import io.searchbox.action.Action;
 import io.searchbox.client.JestClient;
-import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.JestResult;
 import io.searchbox.indices.CreateIndex;
 import io.searchbox.indices.IndicesExists;
@@ -26,14 +25,13 @@ import java.util.Map;
 public class IndexCreatorIfNotPresent implements ApplicationListener<ApplicationReadyEvent> {
 
     @Autowired
-    private JestClientFactory clientFactory;
+    private JestClient client;
 
     @Autowired
     private ElasticSearchConfig elasticSearchConfig;
 
     @Override
     public void onApplicationEvent(ApplicationReadyEvent applicationReadyEvent) {
-        JestClient client = clientFactory.getObject();
         if (elasticSearchConfig.isCreateIndexIfNotFound()) {
             try {
                 Action action = new IndicesExists.Builder(elasticSearchConfig.getIndexName()).build();
@@ -15,6 +15,7 @@
  */
 package com.expedia.alertmanager.service.web;
 
+import com.expedia.alertmanager.model.BatchMatchSubscriptionRequest;
 import com.expedia.alertmanager.model.MatchSubscriptionRequest;
 import com.expedia.alertmanager.service.dao.SubscriptionStoreService;
 import com.expedia.alertmanager.model.CreateSubscriptionRequest;
@@ -64,6 +65,20 @@ public class SubscriptionController {
         return subscriptionStore.matchSubscriptions(matchSubscriptionRequest.getLabels());
     }
 
+    /**
+     * Matches a batch of label sets with a single request to the store.
+     * @param batchMatchSubscriptionRequest label sets to match
+     * @return matching subscriptions of each label set, in the same order as the request
+     */
+    @RequestMapping(value = "/subscriptions/match/batch", method = RequestMethod.POST)
+    public List<List<SubscriptionResponse>> batchMatchingSubscriptions(
+            @RequestBody BatchMatchSubscriptionRequest batchMatchSubscriptionRequest) {
+        Assert.notEmpty(batchMatchSubscriptionRequest.getLabels(), "labels cant be empty");
+        batchMatchSubscriptionRequest.getLabels().forEach(labels ->
+            Assert.isTrue(!ObjectUtils.isEmpty(labels), "labels cant be empty"));
+        return subscriptionStore.matchSubscriptions(batchMatchSubscriptionRequest.getLabels());
+    }
+
     @RequestMapping(value = "/subscriptions/search", method = RequestMethod.POST)
     public List<SubscriptionResponse> searchSubscriptions(
         @RequestBody SearchSubscriptionRequest searchSubscriptionRequest) {
@@ -81,6 +96,16 @@ public class SubscriptionController {
         }
     }
 
+    /**
+     * Returns all the subscriptions. Meant for consumers like notifier that keep a local copy of
+     * subscriptions to match alerts in memory.
+     * @return all subscriptions
+     */
+    @RequestMapping(value = "/subscriptions", method = RequestMethod.GET)
+    public List<SubscriptionResponse> getAllSubscriptions() {
+        return subscriptionStore.getAllSubscriptions();
+    }
+
     @RequestMapping(value = "/subscriptions/{id}", method = RequestMethod.GET)
     public SubscriptionResponse getSubscription(@PathVariable String id) {
         return subscriptionStore.getSubscription(id);
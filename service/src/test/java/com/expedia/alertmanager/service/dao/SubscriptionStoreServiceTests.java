@@ -21,6 +21,7 @@ import com.expedia.alertmanager.model.ExpressionTree;
 import com.expedia.alertmanager.model.MatchSubscriptionRequest;
 import com.expedia.alertmanager.model.Operator;
 import com.expedia.alertmanager.model.SearchSubscriptionRequest;
+import com.expedia.alertmanager.model.SubscriptionChangeEvent;
 import com.expedia.alertmanager.model.SubscriptionResponse;
 import com.expedia.alertmanager.model.UpdateSubscriptionRequest;
 import com.expedia.alertmanager.service.conf.ElasticSearchConfig;
@@ -30,20 +31,22 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import io.searchbox.client.JestClient;
-import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.JestResult;
 import io.searchbox.core.Bulk;
 import io.searchbox.core.BulkResult;
+import io.searchbox.core.ClearScroll;
+import io.searchbox.core.Delete;
 import io.searchbox.core.DocumentResult;
-import io.searchbox.core.Get;
+import io.searchbox.core.MultiGet;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
+import io.searchbox.core.SearchScroll;
 import io.searchbox.indices.mapping.GetMapping;
 import io.searchbox.indices.mapping.PutMapping;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.Mock;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
@@ -71,11 +74,8 @@ import static org.mockito.Mockito.verify;
 @SpringBootTest
 public class SubscriptionStoreServiceTests {
 
-    @Mock
-    private JestClient client;
-
     @MockBean
-    private JestClientFactory clientFactory;
+    private JestClient client;
 
     @MockBean
     private ElasticSearchConfig elasticSearchConfig;
@@ -83,14 +83,21 @@ public class SubscriptionStoreServiceTests {
     @Autowired
     private SubscriptionStoreService subscriptionStore;
 
+    @Autowired
+    private FieldMappingCache fieldMappingCache;
+
     //TODO - remove this dependency if we can resolve bean loading issue with AlertStore in a better way
     @MockBean
     private AlertStoreService alertStore;
 
+    @MockBean
+    private SubscriptionChangePublisher subscriptionChangePublisher;
+
     @Before
     public void beforTest() {
         given(elasticSearchConfig.getIndexName()).willReturn("subscription");
         given(elasticSearchConfig.getDocType()).willReturn("_doc");
+        fieldMappingCache.invalidate();
     }
 
     @Test
@@ -101,7 +108,6 @@ public class SubscriptionStoreServiceTests {
         putMappingResult.setSucceeded(true);
         given(client.execute(any(PutMapping.class))).willReturn(putMappingResult);
         given(client.execute(any(Bulk.class))).willReturn(mockGetBulkIndexResult());
-        given(clientFactory.getObject()).willReturn(client);
 
         ExpressionTree expression = new ExpressionTree();
         expression.setOperator(Operator.AND);
@@ -118,6 +124,37 @@ public class SubscriptionStoreServiceTests {
         verify(client, times(1)).execute(any(GetMapping.class));
         verify(client, times(1)).execute(any(PutMapping.class));
         verify(client, times(1)).execute(any(Bulk.class));
+        ArgumentCaptor<SubscriptionChangeEvent> events = ArgumentCaptor.forClass(SubscriptionChangeEvent.class);
+        verify(subscriptionChangePublisher, times(1)).publish(events.capture());
+        assertEquals("id-123", events.getValue().getId());
+        assertEquals(111, events.getValue().getVersion());
+        assertEquals(SubscriptionChangeEvent.Operation.CREATE, events.getValue().getOperation());
+        assertEquals(expression, events.getValue().getSubscription().getExpression());
+    }
+
+    @Test
+    public void givenSubscriptionsWithAlreadyMappedFields_shouldNotFetchOrUpdateMappingsAgain() throws IOException {
+
+        given(client.execute(any(GetMapping.class))).willReturn(mockGetMappingResult());
+        JestResult putMappingResult = new JestResult(new Gson());
+        putMappingResult.setSucceeded(true);
+        given(client.execute(any(PutMapping.class))).willReturn(putMappingResult);
+        given(client.execute(any(Bulk.class))).willReturn(mockGetBulkIndexResult());
+
+        ExpressionTree expression = new ExpressionTree();
+        expression.setOperator(Operator.AND);
+        expression.setOperands(Arrays.asList(operand("app", "search-app")));
+        CreateSubscriptionRequest createSubscriptionRequest = new CreateSubscriptionRequest();
+        createSubscriptionRequest.setName("sub");
+        createSubscriptionRequest.setUser(user("user"));
+        createSubscriptionRequest.setDispatchers(Arrays.asList(dispatcher("email", EMAIL)));
+        createSubscriptionRequest.setExpression(expression);
+        List<CreateSubscriptionRequest> createSubReqs = Arrays.asList(createSubscriptionRequest);
+        subscriptionStore.createSubscriptions(createSubReqs);
+        subscriptionStore.createSubscriptions(createSubReqs);
+        verify(client, times(1)).execute(any(GetMapping.class));
+        verify(client, times(1)).execute(any(PutMapping.class));
+        verify(client, times(2)).execute(any(Bulk.class));
     }
 
     @Test
@@ -127,9 +164,8 @@ public class SubscriptionStoreServiceTests {
         JestResult putMappingResult = new JestResult(new Gson());
         putMappingResult.setSucceeded(true);
         given(client.execute(any(PutMapping.class))).willReturn(putMappingResult);
-        given(client.execute(any(Get.class))).willReturn(mockGetDocumentResult());
+        given(client.execute(any(MultiGet.class))).willReturn(mockMultiGetResult("xyz"));
         given(client.execute(any(Bulk.class))).willReturn(mockGetBulkIndexResult());
-        given(clientFactory.getObject()).willReturn(client);
 
         ExpressionTree expression = new ExpressionTree();
         expression.setOperator(Operator.AND);
@@ -143,7 +179,59 @@ public class SubscriptionStoreServiceTests {
         subscriptionStore.updateSubscriptions(updateSubReqs);
         verify(client, times(1)).execute(any(GetMapping.class));
         verify(client, times(1)).execute(any(PutMapping.class));
-        verify(client, times(1)).execute(any(Get.class));
+        verify(client, times(1)).execute(any(MultiGet.class));
+        verify(client, times(1)).execute(any(Bulk.class));
+        ArgumentCaptor<SubscriptionChangeEvent> events = ArgumentCaptor.forClass(SubscriptionChangeEvent.class);
+        verify(subscriptionChangePublisher, times(1)).publish(events.capture());
+        assertEquals("xyz", events.getValue().getId());
+        assertEquals(SubscriptionChangeEvent.Operation.UPDATE, events.getValue().getOperation());
+        assertEquals(dispatchers, events.getValue().getSubscription().getDispatchers());
+    }
+
+    @Test
+    public void givenValidDeleteSubscriptionRequest_shouldDeleteAndPublishTheChange() throws IOException {
+        DocumentResult deleteResult = new DocumentResult(new Gson());
+        JsonObject deleted = new JsonObject();
+        deleted.addProperty("_id", "xyz");
+        deleted.addProperty("_version", 5);
+        deleteResult.setJsonObject(deleted);
+        deleteResult.setSucceeded(true);
+        given(client.execute(any(Delete.class))).willReturn(deleteResult);
+
+        subscriptionStore.deleteSubscription("xyz");
+
+        verify(client, times(1)).execute(any(Delete.class));
+        ArgumentCaptor<SubscriptionChangeEvent> events = ArgumentCaptor.forClass(SubscriptionChangeEvent.class);
+        verify(subscriptionChangePublisher, times(1)).publish(events.capture());
+        assertEquals("xyz", events.getValue().getId());
+        assertEquals(5, events.getValue().getVersion());
+        assertEquals(SubscriptionChangeEvent.Operation.DELETE, events.getValue().getOperation());
+    }
+
+    @Test
+    public void givenMultipleUpdateSubscriptionRequests_shouldFetchExistingSubscriptionsInOneCall() throws IOException {
+
+        given(client.execute(any(GetMapping.class))).willReturn(mockGetMappingResult());
+        JestResult putMappingResult = new JestResult(new Gson());
+        putMappingResult.setSucceeded(true);
+        given(client.execute(any(PutMapping.class))).willReturn(putMappingResult);
+        given(client.execute(any(MultiGet.class))).willReturn(mockMultiGetResult("xyz", "abc"));
+        given(client.execute(any(Bulk.class))).willReturn(mockGetBulkIndexResult());
+
+        ExpressionTree expression = new ExpressionTree();
+        expression.setOperator(Operator.AND);
+        expression.setOperands(Arrays.asList(operand("app", "search-app")));
+        List<Dispatcher> dispatchers = Arrays.asList(dispatcher("email", EMAIL));
+        UpdateSubscriptionRequest firstUpdateRequest = new UpdateSubscriptionRequest();
+        firstUpdateRequest.setId("xyz");
+        firstUpdateRequest.setDispatchers(dispatchers);
+        firstUpdateRequest.setExpression(expression);
+        UpdateSubscriptionRequest secondUpdateRequest = new UpdateSubscriptionRequest();
+        secondUpdateRequest.setId("abc");
+        secondUpdateRequest.setDispatchers(dispatchers);
+        secondUpdateRequest.setExpression(expression);
+        subscriptionStore.updateSubscriptions(Arrays.asList(firstUpdateRequest, secondUpdateRequest));
+        verify(client, times(1)).execute(any(MultiGet.class));
         verify(client, times(1)).execute(any(Bulk.class));
     }
 
@@ -166,16 +254,23 @@ public class SubscriptionStoreServiceTests {
         return bulkCreateResult;
     }
 
-    private DocumentResult mockGetDocumentResult() {
-        DocumentResult getSubscriptionResult = new DocumentResult(new Gson());
-        JsonObject source = getSourceJson();
-
-        JsonObject sourceVal = new JsonObject();
-        sourceVal.add("_source", source);
-        getSubscriptionResult.setJsonMap(new Gson().fromJson(sourceVal, Map.class));
-        getSubscriptionResult.setPathToResult("_source");
-        getSubscriptionResult.setSucceeded(true);
-        return getSubscriptionResult;
+    private JestResult mockMultiGetResult(String... ids) {
+        JestResult multiGetResult = new JestResult(new Gson());
+        JsonArray docs = new JsonArray();
+        for (String id : ids) {
+            JsonObject doc = new JsonObject();
+            doc.addProperty("_id", id);
+            doc.addProperty("_index", "subscription");
+            doc.addProperty("_type", "_doc");
+            doc.addProperty("found", true);
+            doc.add("_source", getSourceJson());
+            docs.add(doc);
+        }
+        JsonObject docsVal = new JsonObject();
+        docsVal.add("docs", docs);
+        multiGetResult.setJsonMap(new Gson().fromJson(docsVal, Map.class));
+        multiGetResult.setSucceeded(true);
+        return multiGetResult;
     }
 
     private JestResult mockGetMappingResult() {
@@ -240,6 +335,53 @@ public class SubscriptionStoreServiceTests {
         assertEquals(subResponses.get(0).getUser().getId(), "user");
     }
 
+    @Test
+    public void givenMoreSubscriptionsThanAScrollPage_shouldGetAllSubscriptions() throws IOException {
+        given(elasticSearchConfig.getScrollPageSize()).willReturn(1);
+        given(elasticSearchConfig.getScrollKeepAlive()).willReturn("1m");
+        given(client.execute(any(Search.class))).willReturn(scrollPage(new SearchResult(new Gson()), 2, "id-1"));
+        given(client.execute(any(SearchScroll.class))).willReturn(scrollPage(new JestResult(new Gson()), 2, "id-2"),
+            scrollPage(new JestResult(new Gson()), 2));
+        given(client.execute(any(ClearScroll.class))).willReturn(scrollPage(new JestResult(new Gson()), 0));
+
+        List<SubscriptionResponse> subResponses = subscriptionStore.getAllSubscriptions();
+        assertEquals(2, subResponses.size());
+        assertEquals("id-1", subResponses.get(0).getId());
+        assertEquals("id-2", subResponses.get(1).getId());
+        verify(client, times(2)).execute(any(SearchScroll.class));
+        verify(client, times(1)).execute(any(ClearScroll.class));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void givenIncompleteScroll_shouldFailToGetAllSubscriptions() throws IOException {
+        given(elasticSearchConfig.getScrollPageSize()).willReturn(1);
+        given(elasticSearchConfig.getScrollKeepAlive()).willReturn("1m");
+        given(client.execute(any(Search.class))).willReturn(scrollPage(new SearchResult(new Gson()), 3, "id-1"));
+        given(client.execute(any(SearchScroll.class))).willReturn(scrollPage(new JestResult(new Gson()), 3));
+        given(client.execute(any(ClearScroll.class))).willReturn(scrollPage(new JestResult(new Gson()), 0));
+
+        subscriptionStore.getAllSubscriptions();
+    }
+
+    private <T extends JestResult> T scrollPage(T result, long total, String... ids) {
+        JsonArray hits = new JsonArray();
+        for (String id : ids) {
+            JsonObject hit = new JsonObject();
+            hit.addProperty("_id", id);
+            hit.add("_source", getSourceJson());
+            hits.add(hit);
+        }
+        JsonObject hitsObject = new JsonObject();
+        hitsObject.addProperty("total", total);
+        hitsObject.add("hits", hits);
+        JsonObject json = new JsonObject();
+        json.addProperty("_scroll_id", "scroll-1");
+        json.add("hits", hitsObject);
+        result.setJsonObject(json);
+        result.setSucceeded(true);
+        return result;
+    }
+
     private void ensureSearchReturnsSomeResults() throws IOException {
         SearchResult searchResult = new SearchResult(new Gson());
         JsonObject source = getSourceJson();
@@ -261,7 +403,6 @@ public class SubscriptionStoreServiceTests {
         searchResult.setSucceeded(true);
         searchResult.setPathToResult("_source");
         given(client.execute(any(Search.class))).willReturn(searchResult);
-        given(clientFactory.getObject()).willReturn(client);
     }
 
     private JsonObject getSourceJson() {
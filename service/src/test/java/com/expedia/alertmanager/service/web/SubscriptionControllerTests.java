@@ -15,6 +15,7 @@
  */
 package com.expedia.alertmanager.service.web;
 
+import com.expedia.alertmanager.model.BatchMatchSubscriptionRequest;
 import com.expedia.alertmanager.model.CreateSubscriptionRequest;
 import com.expedia.alertmanager.model.Dispatcher;
 import com.expedia.alertmanager.model.ExpressionTree;
@@ -39,6 +40,7 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.web.util.NestedServletException;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -50,6 +52,7 @@ import static com.expedia.alertmanager.service.web.TestUtil.user;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -149,6 +152,43 @@ public class SubscriptionControllerTests {
         verify(subscriptionStore, times(1)).matchSubscriptions(labels);
     }
 
+    @Test
+    public void givenBatchMatchSubscriptionRequest_shouldReturnSubscriptionsPerLabelSet() throws Exception {
+        Map<String, String> shoppingLabels = new HashMap<>();
+        shoppingLabels.put("app", "shopping");
+        Map<String, String> searchLabels = new HashMap<>();
+        searchLabels.put("app", "search");
+        BatchMatchSubscriptionRequest batchMatchSubscriptionRequest = new BatchMatchSubscriptionRequest();
+        batchMatchSubscriptionRequest.setLabels(Arrays.asList(shoppingLabels, searchLabels));
+        SubscriptionResponse response = new SubscriptionResponse();
+        response.setUser(user("id"));
+        response.setName("name");
+        given(subscriptionStore.matchSubscriptions(Arrays.asList(shoppingLabels, searchLabels)))
+            .willReturn(Arrays.asList(Collections.emptyList(), Arrays.asList(response)));
+        mvc.perform(post("/subscriptions/match/batch")
+            .content(GSON.toJson(batchMatchSubscriptionRequest))
+            .contentType(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0]").isEmpty())
+            .andExpect(jsonPath("$.[1].[0].user.id").value("id"))
+            .andExpect(jsonPath("$.[1].[0].name").value("name"));
+        verify(subscriptionStore, times(1)).matchSubscriptions(Arrays.asList(shoppingLabels, searchLabels));
+    }
+
+    @Test
+    public void givenGetAllSubscriptionsRequest_shouldReturnAllSubscriptions() throws Exception {
+        SubscriptionResponse response = new SubscriptionResponse();
+        response.setUser(user("id"));
+        response.setName("name");
+        given(subscriptionStore.getAllSubscriptions())
+            .willReturn(Arrays.asList(response));
+        mvc.perform(get("/subscriptions"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0].user.id").value("id"))
+            .andExpect(jsonPath("$.[0].name").value("name"));
+        verify(subscriptionStore, times(1)).getAllSubscriptions();
+    }
+
     @Test
     public void givenValidUpdateSubscriptionRequest_shouldUpdateSubscriptions() throws Exception {
         ExpressionTree expression = new ExpressionTree();
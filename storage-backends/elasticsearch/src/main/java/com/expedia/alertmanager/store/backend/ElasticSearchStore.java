@@ -142,6 +142,9 @@ public class ElasticSearchStore implements AlertStore {
     @Override
     public void close() {
         /* close the client quietly */
+        if (writer != null) {
+            writer.close();
+        }
         try {
             client.close();
         } catch (Exception e) {
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.expedia.alertmanager.store.backend;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Resolves the name of the index an alert is written to from its creation time, with one index per hour, day or
+ * ISO week. The names of the current and the previous index are cached along with the time range they cover, so
+ * resolving the index of an alert doesn't allocate anything once its index was seen; older indices are resolved
+ * without caching.
+ */
+final class IndexNameResolver {
+
+    enum Rollover {
+        HOURLY(DateTimeFormatter.ofPattern("yyyy-MM-dd-HH")),
+        DAILY(DateTimeFormatter.ofPattern("yyyy-MM-dd")),
+        WEEKLY(new DateTimeFormatterBuilder()
+                .appendValue(IsoFields.WEEK_BASED_YEAR, 4)
+                .appendLiteral("-w")
+                .appendValue(IsoFields.WEEK_OF_WEEK_BASED_YEAR, 2)
+                .toFormatter());
+
+        private final DateTimeFormatter formatter;
+
+        Rollover(final DateTimeFormatter formatter) {
+            this.formatter = formatter;
+        }
+
+        private ZonedDateTime start(final ZonedDateTime time) {
+            switch (this) {
+                case HOURLY:
+                    return time.truncatedTo(ChronoUnit.HOURS);
+                case WEEKLY:
+                    return time.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+                            .atStartOfDay(time.getZone());
+                default:
+                    return time.toLocalDate().atStartOfDay(time.getZone());
+            }
+        }
+
+        private ZonedDateTime end(final ZonedDateTime start) {
+            switch (this) {
+                case HOURLY:
+                    return start.plusHours(1);
+                case WEEKLY:
+                    return start.toLocalDate().plusWeeks(1).atStartOfDay(start.getZone());
+                default:
+                    return start.toLocalDate().plusDays(1).atStartOfDay(start.getZone());
+            }
+        }
+    }
+
+    private final String indexNamePrefix;
+    private final Rollover rollover;
+    private final ZoneId zone;
+    private volatile IndexSlot current;
+    private volatile IndexSlot previous;
+
+    IndexNameResolver(final String indexNamePrefix, final Rollover rollover, final ZoneId zone) {
+        this.indexNamePrefix = indexNamePrefix;
+        this.rollover = rollover;
+        this.zone = zone;
+    }
+
+    /**
+     * @param creationTime alert creation time in epoch seconds
+     * @return name of the index of the alert
+     */
+    String resolve(final long creationTime) {
+        final IndexSlot currentSlot = current;
+        if (currentSlot != null && currentSlot.contains(creationTime)) {
+            return currentSlot.indexName;
+        }
+        final IndexSlot previousSlot = previous;
+        if (previousSlot != null && previousSlot.contains(creationTime)) {
+            return previousSlot.indexName;
+        }
+
+        final IndexSlot slot = slot(creationTime);
+        if (currentSlot == null || slot.start >= currentSlot.end) {
+            // time moved on to a new index, the current one becomes the previous one
+            previous = currentSlot;
+            current = slot;
+        } else if (slot.end == currentSlot.start) {
+            previous = slot;
+        }
+        return slot.indexName;
+    }
+
+    private IndexSlot slot(final long creationTime) {
+        final ZonedDateTime start = rollover.start(Instant.ofEpochSecond(creationTime).atZone(zone));
+        final String indexName = indexNamePrefix + "-" + rollover.formatter.format(start);
+        return new IndexSlot(start.toEpochSecond(), rollover.end(start).toEpochSecond(), indexName);
+    }
+
+    private static final class IndexSlot {
+        // time range of the index in epoch seconds, end excluded
+        private final long start;
+        private final long end;
+        private final String indexName;
+
+        private IndexSlot(final long start, final long end, final String indexName) {
+            this.start = start;
+            this.end = end;
+            this.indexName = indexName;
+        }
+
+        private boolean contains(final long time) {
+            return time >= start && time < end;
+        }
+    }
+}
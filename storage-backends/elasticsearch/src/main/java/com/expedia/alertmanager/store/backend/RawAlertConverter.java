@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.expedia.alertmanager.store.backend;
+
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+
+import static com.expedia.alertmanager.store.backend.ElasticSearchStore.*;
+
+/**
+ * Converts the alert json consumed from kafka to the indexed document by streaming its tokens, renaming
+ * creationTime to startTime, without deserializing the alert. The json is validated on the way: it must only hold
+ * the fields of an alert, with label and annotation values of scalar types, else the alert is rejected.
+ */
+final class RawAlertConverter {
+    private final static String RAW_NAME = "name";
+    private final static String RAW_CREATION_TIME = "creationTime";
+    private final static String RAW_ANNOTATIONS = "annotations";
+    private final static String RAW_LABELS = "labels";
+    private final static String RAW_GENERATOR_URL = "generatorURL";
+
+    private RawAlertConverter() { }
+
+    static AlertDocument convert(final byte[] rawAlert) throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY, rawAlert)) {
+            expect(parser.nextToken(), XContentParser.Token.START_OBJECT);
+            final XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+            long creationTime = 0;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+                final String field = parser.currentName();
+                token = parser.nextToken();
+                switch (field) {
+                    case RAW_NAME:
+                        copyValue(parser, token, builder, NAME);
+                        break;
+                    case RAW_GENERATOR_URL:
+                        copyValue(parser, token, builder, GENERATOR_URL);
+                        break;
+                    case RAW_CREATION_TIME:
+                        if (token != XContentParser.Token.VALUE_NULL) {
+                            creationTime = parser.longValue(true);
+                        }
+                        builder.field(CREATION_TIME, creationTime);
+                        break;
+                    case RAW_LABELS:
+                        copyMap(parser, token, builder, LABELS);
+                        break;
+                    case RAW_ANNOTATIONS:
+                        copyMap(parser, token, builder, ANNOTATIONS);
+                        break;
+                    default:
+                        throw new IOException(String.format("Unknown alert field '%s'", field));
+                }
+            }
+            expect(token, XContentParser.Token.END_OBJECT);
+            return new AlertDocument(builder.endObject(), creationTime);
+        }
+    }
+
+    private static void copyMap(final XContentParser parser,
+                                final XContentParser.Token token,
+                                final XContentBuilder builder,
+                                final String name) throws IOException {
+        if (token == XContentParser.Token.VALUE_NULL) {
+            builder.nullField(name);
+            return;
+        }
+        expect(token, XContentParser.Token.START_OBJECT);
+        builder.startObject(name);
+        XContentParser.Token entryToken;
+        while ((entryToken = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+            final String key = parser.currentName();
+            copyValue(parser, parser.nextToken(), builder, key);
+        }
+        expect(entryToken, XContentParser.Token.END_OBJECT);
+        builder.endObject();
+    }
+
+    // scalar values are written as strings, like the deserialization of the alert does
+    private static void copyValue(final XContentParser parser,
+                                  final XContentParser.Token token,
+                                  final XContentBuilder builder,
+                                  final String name) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+            case VALUE_NUMBER:
+            case VALUE_BOOLEAN:
+                builder.field(name, parser.text());
+                break;
+            case VALUE_NULL:
+                builder.nullField(name);
+                break;
+            default:
+                throw new IOException(String.format("Unexpected %s for alert field '%s'", token, name));
+        }
+    }
+
+    private static void expect(final XContentParser.Token token, final XContentParser.Token expected) throws IOException {
+        if (token != expected) {
+            throw new IOException(String.format("Malformed alert json, expected %s but found %s", expected, token));
+        }
+    }
+
+    static final class AlertDocument {
+        private final XContentBuilder source;
+        private final long creationTime;
+
+        private AlertDocument(final XContentBuilder source, final long creationTime) {
+            this.source = source;
+            this.creationTime = creationTime;
+        }
+
+        XContentBuilder getSource() {
+            return source;
+        }
+
+        long getCreationTime() {
+            return creationTime;
+        }
+    }
+}
@@ -3,60 +3,110 @@ package com.expedia.alertmanager.store.backend;
 import com.expedia.alertmanager.model.Alert;
 import com.expedia.alertmanager.model.store.AlertWithId;
 import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.rest.RestStatus;
 import org.slf4j.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static com.expedia.alertmanager.store.backend.ElasticSearchStore.*;
 
-class Writer {
+class Writer implements Closeable {
     private final static long DEFAULT_RETRY_BACKOFF_MS = 200;
+    private final static long DEFAULT_MAX_RETRY_BACKOFF_MS = 10000;
     private final static int DEFAULT_MAX_RETRIES = 50;
 
-    private final static String INDEX_NAME_DATE_PATTERN = "yyyy-MM-dd";
     private final RestHighLevelClient client;
-    private final String indexNamePrefix;
+    private final IndexNameResolver indexNameResolver;
     private final Logger logger;
     private final int maxRetries;
     private final long retryBackOffMillis;
+    private final long maxRetryBackOffMillis;
+    private final ScheduledExecutorService retryScheduler;
 
     Writer(final RestHighLevelClient client,
            final Map<String, Object> config,
            final String indexNamePrefix,
            final Logger logger) {
         this.client = client;
-        this.indexNamePrefix = indexNamePrefix;
+        this.indexNameResolver = new IndexNameResolver(indexNamePrefix,
+                IndexNameResolver.Rollover.valueOf(config.getOrDefault("index.rollover", "daily").toString().toUpperCase()),
+                ZoneId.of(config.getOrDefault("index.timezone", ZoneId.systemDefault().getId()).toString()));
         this.logger = logger;
         this.maxRetries = Integer.parseInt(config.getOrDefault("max.retries", DEFAULT_MAX_RETRIES).toString());
         this.retryBackOffMillis = Long.parseLong(config.getOrDefault("retry.backoff.ms", DEFAULT_RETRY_BACKOFF_MS).toString());
+        this.maxRetryBackOffMillis = Long.parseLong(config.getOrDefault("retry.max.backoff.ms", DEFAULT_MAX_RETRY_BACKOFF_MS).toString());
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "es-writer-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     void write(final List<AlertWithId> alerts, final WriteCallback callback) {
         final BulkRequest bulkRequest = new BulkRequest();
-        final SimpleDateFormat formatter = new SimpleDateFormat(INDEX_NAME_DATE_PATTERN);
+        // alerts in the order of the bulk request items
+        final List<AlertWithId> indexedAlerts = new ArrayList<>(alerts.size());
+        final List<AlertWithId> malformedAlerts = new ArrayList<>();
+        Exception malformedAlertException = null;
 
         try {
             for (final AlertWithId alertWrapper : alerts) {
-                final String idxName = indexName(formatter, alertWrapper.getAlert().getCreationTime());
+                final XContentBuilder source;
+                final long creationTime;
+                if (alertWrapper.getRawAlert() != null) {
+                    final RawAlertConverter.AlertDocument document;
+                    try {
+                        document = RawAlertConverter.convert(alertWrapper.getRawAlert());
+                    } catch (Exception ex) {
+                        malformedAlerts.add(alertWrapper);
+                        malformedAlertException = ex;
+                        continue;
+                    }
+                    source = document.getSource();
+                    creationTime = document.getCreationTime();
+                } else {
+                    source = convertAlertToMap(alertWrapper.getAlert());
+                    creationTime = alertWrapper.getAlert().getCreationTime();
+                }
+                final String idxName = indexNameResolver.resolve(creationTime);
                 final IndexRequest indexRequest = new IndexRequest(idxName, ES_INDEX_TYPE, alertWrapper.getId());
-                indexRequest.source(convertAlertToMap(alertWrapper.getAlert()));
+                indexRequest.source(source);
                 bulkRequest.add(indexRequest);
+                indexedAlerts.add(alertWrapper);
             }
-            this.client.bulkAsync(bulkRequest, new BulkActionListener(bulkRequest, callback, 0));
         } catch (IOException ex) {
             callback.onComplete(Optional.of(ex));
+            return;
+        }
+
+        if (!malformedAlerts.isEmpty()) {
+            logger.error("{} malformed alerts can not be written to elastic search", malformedAlerts.size(),
+                    malformedAlertException);
+            callback.onDeadLetter(malformedAlerts, malformedAlertException);
         }
+        if (indexedAlerts.isEmpty()) {
+            callback.onComplete(Optional.empty());
+            return;
+        }
+        this.client.bulkAsync(bulkRequest, new BulkActionListener(bulkRequest, indexedAlerts, callback, 0));
     }
 
     final class BulkActionListener implements ActionListener<BulkResponse> {
@@ -64,48 +114,121 @@ class Writer {
         private final WriteCallback callback;
         private final int retryCount;
         private final BulkRequest bulkRequest;
+        // alerts in the order of the bulk request items
+        private final List<AlertWithId> alerts;
 
-        BulkActionListener(final BulkRequest bulkRequest, final WriteCallback callback, int retryCount) {
+        BulkActionListener(final BulkRequest bulkRequest,
+                           final List<AlertWithId> alerts,
+                           final WriteCallback callback,
+                           int retryCount) {
             this.callback = callback;
             this.bulkRequest = bulkRequest;
+            this.alerts = alerts;
             this.retryCount = retryCount;
         }
 
+        /**
+         * on partial failures only the failed items are retried, and only if their failure is transient.
+         * the items rejected for good, like mapping errors, are handed to the dead letter callback
+         */
         @Override
         public void onResponse(BulkResponse bulkItemResponses) {
-            if (bulkItemResponses.hasFailures()) {
-                retry(new RuntimeException("Fail to execute the elastic search write with partial failures:"
-                        + bulkItemResponses.buildFailureMessage()));
-            } else {
+            if (!bulkItemResponses.hasFailures()) {
                 callback.onComplete(Optional.empty());
+                return;
+            }
 
+            final BulkRequest retryRequest = new BulkRequest();
+            final List<AlertWithId> retryAlerts = new ArrayList<>();
+            final List<AlertWithId> deadLetters = new ArrayList<>();
+            final StringBuilder deadLetterFailures = new StringBuilder();
+            for (final BulkItemResponse item : bulkItemResponses.getItems()) {
+                if (item.isFailed()) {
+                    final AlertWithId alert = alerts.get(item.getItemId());
+                    if (isRetryable(item.getFailure().getStatus())) {
+                        retryRequest.add(bulkRequest.requests().get(item.getItemId()));
+                        retryAlerts.add(alert);
+                    } else {
+                        deadLetters.add(alert);
+                        deadLetterFailures.append("\n[").append(item.getItemId()).append("]: id [")
+                                .append(item.getId()).append("], message [").append(item.getFailureMessage()).append("]");
+                    }
+                }
+            }
+
+            if (!deadLetters.isEmpty()) {
+                final Exception deadLetterException = new RuntimeException(
+                        "Fail to execute the elastic search write with permanent failures:" + deadLetterFailures);
+                logger.error("{} alerts have been rejected by elastic search", deadLetters.size(), deadLetterException);
+                callback.onDeadLetter(deadLetters, deadLetterException);
+            }
+
+            if (retryAlerts.isEmpty()) {
+                callback.onComplete(Optional.empty());
+            } else {
+                retry(retryRequest, retryAlerts, new RuntimeException(
+                        "Fail to execute the elastic search write with partial failures:"
+                                + bulkItemResponses.buildFailureMessage()));
             }
         }
 
         @Override
         public void onFailure(Exception e) {
-            retry(e);
+            retry(bulkRequest, alerts, e);
         }
 
-        private void retry(final Exception e) {
+        // the listener is invoked on an I/O thread of the elastic client, so the retry is scheduled and never waited for here
+        private void retry(final BulkRequest retryRequest, final List<AlertWithId> retryAlerts, final Exception e) {
             if (retryCount < maxRetries) {
+                final long backOffMillis = backOffMillis(retryCount);
+                logger.warn("Fail to write {} alerts to elastic search, retry attempt={} in {} ms",
+                        retryAlerts.size(), retryCount + 1, backOffMillis, e);
                 try {
-                    Thread.sleep(retryBackOffMillis);
-                    client.bulkAsync(bulkRequest, new BulkActionListener(bulkRequest, callback, retryCount + 1));
-                } catch (InterruptedException e1) {
-                    callback.onComplete(Optional.of(e1));
+                    retryScheduler.schedule(() -> client.bulkAsync(retryRequest,
+                            new BulkActionListener(retryRequest, retryAlerts, callback, retryCount + 1)),
+                            backOffMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ree) {
+                    callback.onComplete(Optional.of(e));
                 }
             } else {
                 logger.error("All retries while writing to elastic search have been exhausted");
                 callback.onComplete(Optional.of(e));
             }
         }
+
         // visible for testing
         public int getRetryCount() {
             return retryCount;
         }
     }
 
+    private static boolean isRetryable(final RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * exponential backoff capped by the max backoff, with a random jitter over the upper half of the delay so that
+     * the writes failing together are not retried together
+     * @param retryCount number of retries done so far
+     * @return delay before the next retry
+     */
+    long backOffMillis(final int retryCount) {
+        final long backOff = Math.min(maxRetryBackOffMillis, retryBackOffMillis << Math.min(retryCount, 30));
+        final long half = backOff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backOff - half + 1);
+    }
+
+    /**
+     * stop the retry scheduler, the writes waiting for a retry are not retried anymore
+     */
+    @Override
+    public void close() {
+        final List<Runnable> pendingRetries = retryScheduler.shutdownNow();
+        if (!pendingRetries.isEmpty()) {
+            logger.error("Closing the writer with {} writes waiting for a retry", pendingRetries.size());
+        }
+    }
+
     private XContentBuilder convertAlertToMap(final Alert alert) throws IOException {
         return XContentFactory.jsonBuilder()
                 .startObject()
@@ -116,8 +239,4 @@ class Writer {
                 .field(GENERATOR_URL, alert.getGeneratorURL())
                 .endObject();
     }
-
-    private String indexName(final SimpleDateFormat formatter, final long startTime) {
-        return String.format("%s-%s", indexNamePrefix, formatter.format(new Date(startTime*1000)));
-    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.expedia.alertmanager.store.backend;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+public class IndexNameResolverUnitTest {
+
+    @Test
+    public void dailyIndexNameTest() {
+        final IndexNameResolver resolver = new IndexNameResolver("alerts", IndexNameResolver.Rollover.DAILY, ZoneOffset.UTC);
+        Assert.assertEquals("alerts-2019-03-10", resolver.resolve(epochSecond(2019, 3, 10, 0)));
+        Assert.assertEquals("alerts-2019-03-10", resolver.resolve(epochSecond(2019, 3, 10, 23)));
+        Assert.assertEquals("alerts-2019-03-11", resolver.resolve(epochSecond(2019, 3, 11, 0)));
+    }
+
+    @Test
+    public void hourlyIndexNameTest() {
+        final IndexNameResolver resolver = new IndexNameResolver("alerts", IndexNameResolver.Rollover.HOURLY, ZoneOffset.UTC);
+        Assert.assertEquals("alerts-2019-03-10-07", resolver.resolve(epochSecond(2019, 3, 10, 7)));
+        Assert.assertEquals("alerts-2019-03-10-08", resolver.resolve(epochSecond(2019, 3, 10, 8)));
+    }
+
+    @Test
+    public void weeklyIndexNameTest() {
+        final IndexNameResolver resolver = new IndexNameResolver("alerts", IndexNameResolver.Rollover.WEEKLY, ZoneOffset.UTC);
+        // monday 2018-12-31 starts the first ISO week of 2019
+        Assert.assertEquals("alerts-2018-w52", resolver.resolve(epochSecond(2018, 12, 30, 23)));
+        Assert.assertEquals("alerts-2019-w01", resolver.resolve(epochSecond(2018, 12, 31, 0)));
+        Assert.assertEquals("alerts-2019-w01", resolver.resolve(epochSecond(2019, 1, 6, 23)));
+        Assert.assertEquals("alerts-2019-w02", resolver.resolve(epochSecond(2019, 1, 7, 0)));
+    }
+
+    @Test
+    public void timezoneIndexNameTest() {
+        final IndexNameResolver resolver = new IndexNameResolver("alerts", IndexNameResolver.Rollover.DAILY,
+                ZoneId.of("America/Los_Angeles"));
+        Assert.assertEquals("alerts-2019-03-09", resolver.resolve(epochSecond(2019, 3, 10, 7)));
+        Assert.assertEquals("alerts-2019-03-10", resolver.resolve(epochSecond(2019, 3, 10, 8)));
+    }
+
+    @Test
+    public void cachedIndexNameTest() {
+        final IndexNameResolver resolver = new IndexNameResolver("alerts", IndexNameResolver.Rollover.DAILY, ZoneOffset.UTC);
+        final String previousDay = resolver.resolve(epochSecond(2019, 3, 9, 12));
+        final String currentDay = resolver.resolve(epochSecond(2019, 3, 10, 12));
+
+        Assert.assertSame("current day should be cached", currentDay, resolver.resolve(epochSecond(2019, 3, 10, 18)));
+        Assert.assertSame("previous day should be cached", previousDay, resolver.resolve(epochSecond(2019, 3, 9, 18)));
+        Assert.assertEquals("alerts-2019-03-08", resolver.resolve(epochSecond(2019, 3, 8, 12)));
+        Assert.assertSame("older day should not evict the cached days", currentDay,
+                resolver.resolve(epochSecond(2019, 3, 10, 1)));
+        Assert.assertSame("older day should not evict the cached days", previousDay,
+                resolver.resolve(epochSecond(2019, 3, 9, 1)));
+    }
+
+    private static long epochSecond(final int year, final int month, final int day, final int hour) {
+        return ZonedDateTime.of(year, month, day, hour, 0, 0, 0, ZoneOffset.UTC).toEpochSecond();
+    }
+}
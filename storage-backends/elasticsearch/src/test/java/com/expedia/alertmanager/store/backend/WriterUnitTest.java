@@ -17,9 +17,11 @@
 package com.expedia.alertmanager.store.backend;
 
 import com.expedia.alertmanager.model.Alert;
+import com.expedia.alertmanager.model.store.AlertStore;
 import com.expedia.alertmanager.model.store.AlertWithId;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.bulk.BulkItemResponse;
@@ -27,6 +29,7 @@ import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -37,6 +40,8 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.easymock.EasyMock.*;
 
@@ -55,17 +60,20 @@ public class WriterUnitTest {
         this.capturedListener = newCapture();
         mockClient.bulkAsync(capture(capturedRequest),  capture(capturedListener));
 
-        final Map<String, Object> config = Collections.singletonMap("max.retries", 1);
+        final Map<String, Object> config = new HashMap<>();
+        config.put("max.retries", 1);
+        config.put("retry.backoff.ms", 1);
         this.writer = new Writer(mockClient, config, "alerts", LOGGER);
     }
 
     @After
     public void afterTest() {
+        writer.close();
         verify(this.mockClient);
     }
 
     @Test
-    public void writeWithRetryTest() throws IOException {
+    public void writeWithRetryTest() throws IOException, InterruptedException {
         EasyMock.expectLastCall().andAnswer(() -> {
             final Writer.BulkActionListener l = (Writer.BulkActionListener)capturedListener.getValue();
 
@@ -81,18 +89,22 @@ public class WriterUnitTest {
         EasyMock.replay(mockClient);
 
         final Boolean[] expectWriteCallback = new Boolean[] { false };
+        final CountDownLatch latch = new CountDownLatch(1);
         writer.write(Collections.singletonList(createAlertWithId()), ex -> {
             expectWriteCallback[0] = true;
+            latch.countDown();
             if (ex.isPresent()) {
                 Assert.fail(ex.toString());
             }
         });
 
+        // the retry is scheduled on the writer retry thread
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
         applyAsserts(expectWriteCallback[0]);
     }
 
     @Test
-    public void writeWithFailureTest() throws IOException {
+    public void writeWithFailureTest() throws IOException, InterruptedException {
         EasyMock.expectLastCall().andAnswer(() -> {
             capturedListener.getValue().onFailure(new RuntimeException("fail to index"));
             return null;
@@ -101,8 +113,10 @@ public class WriterUnitTest {
         EasyMock.replay(mockClient);
 
         final Boolean[] expectWriteCallback = new Boolean[] { false };
+        final CountDownLatch latch = new CountDownLatch(1);
         writer.write(Collections.singletonList(createAlertWithId()), ex -> {
             expectWriteCallback[0] = true;
+            latch.countDown();
             if (!ex.isPresent()) {
                 Assert.fail("runtime indexing exception is expected");
             } else {
@@ -110,6 +124,8 @@ public class WriterUnitTest {
             }
         });
 
+        // the retry is scheduled on the writer retry thread
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
         applyAsserts(expectWriteCallback[0]);
     }
 
@@ -132,6 +148,127 @@ public class WriterUnitTest {
         applyAsserts(expectWriteCallback[0]);
     }
 
+    @Test
+    public void writeWithPartialFailureTest() throws IOException, InterruptedException {
+        EasyMock.expectLastCall().andAnswer(() -> {
+            final Writer.BulkActionListener l = (Writer.BulkActionListener)capturedListener.getValue();
+
+            // reject one item with a transient failure and one with a permanent failure, then succeed the retry
+            if (l.getRetryCount() == 0) {
+                l.onResponse(new BulkResponse(new BulkItemResponse[] {
+                        new BulkItemResponse(0, DocWriteRequest.OpType.INDEX, (BulkItemResponse.Failure)null),
+                        failedItem(1, "alerts-0-2", RestStatus.TOO_MANY_REQUESTS),
+                        failedItem(2, "alerts-0-3", RestStatus.BAD_REQUEST)}, 1000));
+            } else {
+                l.onResponse(buildBulkResponse());
+            }
+            return null;
+        }).times(2);
+
+        EasyMock.replay(mockClient);
+
+        final List<AlertWithId> alerts = Arrays.asList(
+                createAlertWithId("alerts-0-1"), createAlertWithId("alerts-0-2"), createAlertWithId("alerts-0-3"));
+        final List<AlertWithId> deadLetters = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        writer.write(alerts, new AlertStore.WriteCallback() {
+            @Override
+            public void onComplete(Optional<Exception> ex) {
+                if (ex.isPresent()) {
+                    Assert.fail(ex.toString());
+                }
+                latch.countDown();
+            }
+
+            @Override
+            public void onDeadLetter(List<AlertWithId> rejected, Exception ex) {
+                deadLetters.addAll(rejected);
+            }
+        });
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("permanently failed alert should be dead lettered",
+                Collections.singletonList(alerts.get(2)), deadLetters);
+        final List<DocWriteRequest> retried = capturedRequest.getValue().requests();
+        Assert.assertEquals("only the transient failure should be retried", 1, retried.size());
+        Assert.assertEquals("alerts-0-2", retried.get(0).id());
+    }
+
+    @Test
+    public void writeRawAlertTest() throws IOException {
+        EasyMock.expectLastCall().andAnswer(() -> {
+            capturedListener.getValue().onResponse(buildBulkResponse());
+            return null;
+        });
+        EasyMock.replay(mockClient);
+
+        final AlertWithId alert = new AlertWithId();
+        alert.setId("alerts-0-1");
+        alert.setRawAlert(("{\"name\":\"a1\",\"labels\":{\"service\":\"svc1\"},"
+                + "\"annotations\":{\"observedValue\":5,\"expectedValue\":\"10\"},"
+                + "\"creationTime\":" + System.currentTimeMillis() / 1000 + ",\"generatorURL\":null}").getBytes());
+
+        final Boolean[] expectWriteCallback = new Boolean[] { false };
+        writer.write(Collections.singletonList(alert), ex -> {
+            expectWriteCallback[0] = true;
+            if (ex.isPresent()) {
+                Assert.fail(ex.toString());
+            }
+        });
+
+        applyAsserts(expectWriteCallback[0]);
+        final Map<String, Object> indexBody = ((IndexRequest)capturedRequest.getValue().requests().get(0)).sourceAsMap();
+        Assert.assertTrue("creationTime should be renamed", indexBody.containsKey(ElasticSearchStore.CREATION_TIME));
+        Assert.assertFalse("creationTime should be renamed", indexBody.containsKey("creationTime"));
+    }
+
+    @Test
+    public void writeMalformedRawAlertTest() {
+        EasyMock.expectLastCall().andThrow(new AssertionError("malformed alert should not be written")).anyTimes();
+        EasyMock.replay(mockClient);
+
+        final AlertWithId alert = new AlertWithId();
+        alert.setId("alerts-0-1");
+        alert.setRawAlert("{\"name\":\"a1\",\"labels\":{\"service\":{\"nested\":1}}}".getBytes());
+
+        final List<AlertWithId> deadLetters = new ArrayList<>();
+        final Boolean[] expectWriteCallback = new Boolean[] { false };
+        writer.write(Collections.singletonList(alert), new AlertStore.WriteCallback() {
+            @Override
+            public void onComplete(Optional<Exception> ex) {
+                expectWriteCallback[0] = true;
+                if (ex.isPresent()) {
+                    Assert.fail(ex.toString());
+                }
+            }
+
+            @Override
+            public void onDeadLetter(List<AlertWithId> rejected, Exception ex) {
+                deadLetters.addAll(rejected);
+            }
+        });
+
+        Assert.assertTrue(expectWriteCallback[0]);
+        Assert.assertEquals(Collections.singletonList(alert), deadLetters);
+    }
+
+    @Test
+    public void retryBackOffTest() {
+        final Map<String, Object> config = new HashMap<>();
+        config.put("retry.backoff.ms", 100);
+        config.put("retry.max.backoff.ms", 1000);
+        final Writer backOffWriter = new Writer(mockClient, config, "alerts", LOGGER);
+        EasyMock.expectLastCall().anyTimes();
+        EasyMock.replay(mockClient);
+
+        for (int retry = 0; retry < 10; retry++) {
+            final long expected = Math.min(1000, 100L << retry);
+            final long backOff = backOffWriter.backOffMillis(retry);
+            Assert.assertTrue("backoff should be within the jitter range", backOff >= expected / 2 && backOff <= expected);
+        }
+        backOffWriter.close();
+    }
+
     private void applyAsserts(boolean expectWriteCallback) {
         Assert.assertEquals(expectWriteCallback, true);
         final List<DocWriteRequest> requests = capturedRequest.getValue().requests();
@@ -152,6 +289,10 @@ public class WriterUnitTest {
     }
 
     private AlertWithId createAlertWithId() {
+        return createAlertWithId("alerts-0-1");
+    }
+
+    private AlertWithId createAlertWithId(final String id) {
         final Alert alert = new Alert();
         alert.setName("a1");
         alert.setCreationTime(System.currentTimeMillis()/1000);
@@ -166,10 +307,15 @@ public class WriterUnitTest {
 
         AlertWithId aId = new AlertWithId();
         aId.setAlert(alert);
-        aId.setId("alerts-0-1");
+        aId.setId(id);
         return aId;
     }
 
+    private BulkItemResponse failedItem(final int itemId, final String id, final RestStatus status) {
+        return new BulkItemResponse(itemId, DocWriteRequest.OpType.INDEX, new BulkItemResponse.Failure("alerts", "alerts",
+                id, new ElasticsearchStatusException("fail to index", status)));
+    }
+
     private BulkResponse buildBulkResponse() {
         final BulkItemResponse itemResponse = new BulkItemResponse(1, DocWriteRequest.OpType.CREATE, (BulkItemResponse.Failure)null);
         return new BulkResponse(new BulkItemResponse[] {itemResponse}, 1000);
@@ -18,6 +18,7 @@ package com.expedia.alertmanager.store;
 
 import com.expedia.alertmanager.model.store.AlertStore;
 import com.expedia.alertmanager.store.config.KafkaConfig;
+import com.expedia.alertmanager.store.task.DeadLetterProducer;
 import com.expedia.alertmanager.store.task.StoreTask;
 import com.expedia.alertmanager.store.task.TaskStateListener;
 import org.slf4j.Logger;
@@ -29,6 +30,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 class AlertStoreController implements TaskStateListener, Closeable {
@@ -37,6 +39,7 @@ class AlertStoreController implements TaskStateListener, Closeable {
     private final KafkaConfig config;
     private final AlertStore store;
     private final ExecutorService streamThreadExecutor;
+    private final DeadLetterProducer deadLetterProducer;
     private final AtomicBoolean isStarted = new AtomicBoolean(false);
     private final HealthController healthController;
     private List<StoreTask> tasks = new ArrayList<>();
@@ -47,6 +50,7 @@ class AlertStoreController implements TaskStateListener, Closeable {
         this.config = config;
         this.store = store;
         this.streamThreadExecutor = Executors.newFixedThreadPool(config.getStreamThreads());
+        this.deadLetterProducer = new DeadLetterProducer(config);
         this.healthController = healthController;
     }
 
@@ -54,7 +58,7 @@ class AlertStoreController implements TaskStateListener, Closeable {
         LOGGER.info("Starting the span indexing stream..");
         int parallelWritesPerTask = (int)Math.ceil(config.getParallelWrites() / config.getStreamThreads());
         for(int streamId = 0; streamId < config.getStreamThreads(); streamId++) {
-            final StoreTask task = new StoreTask(streamId, config, store, parallelWritesPerTask);
+            final StoreTask task = new StoreTask(streamId, config, store, deadLetterProducer, parallelWritesPerTask);
             task.setStateListener(this);
             tasks.add(task);
             streamThreadExecutor.execute(task);
@@ -86,6 +90,17 @@ class AlertStoreController implements TaskStateListener, Closeable {
             }));
             shutdownThread.setDaemon(true);
             shutdownThread.run();
+
+            // let the tasks commit their offsets before the store gets closed
+            streamThreadExecutor.shutdown();
+            try {
+                if (!streamThreadExecutor.awaitTermination(config.getCloseTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                    LOGGER.error("Tasks did not stop within {} ms", config.getCloseTimeoutMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            deadLetterProducer.close();
         }
     }
 }
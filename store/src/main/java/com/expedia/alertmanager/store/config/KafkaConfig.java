@@ -55,9 +55,39 @@ public class KafkaConfig {
     @JsonProperty("poll.timeout.ms")
     private long pollTimeoutMillis = 2000;
 
+    @JsonProperty("rebalance.drain.timeout.ms")
+    private long rebalanceDrainTimeoutMillis = 10000;
+
+    // a bulk write is sent once it holds the current bulk size of alerts or max bytes, or once its first alert lingered
+    @JsonProperty("bulk.max.docs")
+    private int bulkMaxDocs = 2000;
+
+    @JsonProperty("bulk.min.docs")
+    private int bulkMinDocs = 100;
+
+    @JsonProperty("bulk.docs.step")
+    private int bulkDocsStep = 100;
+
+    @JsonProperty("bulk.max.bytes")
+    private long bulkMaxBytes = 5 * 1024 * 1024;
+
+    @JsonProperty("bulk.linger.ms")
+    private long bulkLingerMillis = 200;
+
+    // the bulk size grows while the writes complete within this latency and is halved otherwise
+    @JsonProperty("bulk.target.latency.ms")
+    private long bulkTargetLatencyMillis = 1000;
+
     @JsonProperty("parallel.writes")
     private int parallelWrites = 10;
 
+    // alerts rejected for good by the store are sent to this topic, they are dropped when it is not set
+    @JsonProperty("dead.letter.topic")
+    private String deadLetterTopic;
+
+    // properties of the dead letter producer, bootstrap.servers defaults to the consumer one
+    private Map<Object, Object> producer = new HashMap<>();
+
     // this consumer map can contain any property that is understood by kafka consumer like group.id, bootstrap.servers
     private Map<Object, Object> consumer = new HashMap<>();
 }
@@ -13,20 +13,16 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package com.expedia.alertmanager.store.serde;
 
 import com.expedia.alertmanager.model.Alert;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.kafka.common.serialization.Deserializer;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
 
 import java.util.Map;
 
-public class AlertDeserializer implements Deserializer<Alert> {
-    private final static Logger LOGGER = LoggerFactory.getLogger(AlertDeserializer.class);
-
+public class AlertSerializer implements Serializer<Alert> {
     private final ObjectMapper mapper = new ObjectMapper();
 
     @Override
@@ -35,12 +31,11 @@ public class AlertDeserializer implements Deserializer<Alert> {
     }
 
     @Override
-    public Alert deserialize(String topic, byte[] bytes) {
+    public byte[] serialize(String topic, Alert alert) {
         try {
-            return mapper.readValue(bytes, Alert.class);
+            return alert == null ? null : mapper.writeValueAsBytes(alert);
         } catch (Exception ex) {
-            LOGGER.error("Fail to deserialize the incoming bytes to alert", ex);
-            return null;
+            throw new SerializationException("Fail to serialize the alert", ex);
         }
     }
 
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.expedia.alertmanager.store.task;
+
+import com.expedia.alertmanager.model.store.AlertWithId;
+import com.expedia.alertmanager.store.config.KafkaConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accumulates the polled alerts into bulk writes, independently of how many records a poll returns.
+ * A bulk is flushed once it holds the current bulk size of alerts or the max bytes, or once its first alert
+ * waited for the linger time.
+ *
+ * The bulk size adapts to the store with additive increase and multiplicative decrease: it grows by a step
+ * after every write completing within the target latency and is halved after a slow or failed write. Store
+ * rejections are retried by the store, so they show up here as slow writes.
+ *
+ * The alerts are only accessed from the consumer thread, the bulk size is updated by the store callbacks.
+ */
+class BulkAccumulator {
+
+    private final KafkaConfig cfg;
+    private final AtomicInteger bulkSize;
+    private List<AlertWithId> alerts = new ArrayList<>();
+    private Map<TopicPartition, Long> nextOffsets = new HashMap<>();
+    private long bytes;
+    private long firstAlertTime;
+
+    BulkAccumulator(final KafkaConfig cfg) {
+        this.cfg = cfg;
+        this.bulkSize = new AtomicInteger(cfg.getBulkMinDocs());
+    }
+
+    /**
+     * @param record consumed record
+     * @param alert alert to write for the record
+     * @param now current time in ms
+     */
+    void add(final ConsumerRecord<String, byte[]> record, final AlertWithId alert, final long now) {
+        if (alerts.isEmpty()) {
+            firstAlertTime = now;
+        }
+        alerts.add(alert);
+        bytes += Math.max(0, record.serializedValueSize());
+        // the committed offset is the offset of the next record to consume
+        nextOffsets.merge(new TopicPartition(record.topic(), record.partition()), record.offset() + 1, Math::max);
+    }
+
+    boolean isEmpty() {
+        return alerts.isEmpty();
+    }
+
+    boolean isFull() {
+        return alerts.size() >= bulkSize.get() || bytes >= cfg.getBulkMaxBytes();
+    }
+
+    boolean isLingerExpired(final long now) {
+        return !alerts.isEmpty() && now - firstAlertTime >= cfg.getBulkLingerMillis();
+    }
+
+    /**
+     * @param now current time in ms
+     * @return time the pending alerts can still wait before being flushed
+     */
+    long remainingLinger(final long now) {
+        return Math.max(0, firstAlertTime + cfg.getBulkLingerMillis() - now);
+    }
+
+    /**
+     * @return the accumulated bulk, the accumulator is empty afterwards
+     */
+    Bulk drain() {
+        final Bulk bulk = new Bulk(alerts, nextOffsets);
+        alerts = new ArrayList<>(bulkSize.get());
+        nextOffsets = new HashMap<>();
+        bytes = 0;
+        return bulk;
+    }
+
+    /**
+     * adapts the bulk size to the outcome of a write, can be called from any thread
+     * @param latencyMillis time the write took to complete, retries included
+     * @param success true if the write succeeded
+     */
+    void onWriteCompleted(final long latencyMillis, final boolean success) {
+        if (success && latencyMillis <= cfg.getBulkTargetLatencyMillis()) {
+            bulkSize.updateAndGet(size -> Math.min(cfg.getBulkMaxDocs(), size + cfg.getBulkDocsStep()));
+        } else {
+            bulkSize.updateAndGet(size -> Math.max(cfg.getBulkMinDocs(), size / 2));
+        }
+    }
+
+    int getBulkSize() {
+        return bulkSize.get();
+    }
+
+    static class Bulk {
+        private final List<AlertWithId> alerts;
+        private final Map<TopicPartition, Long> nextOffsets;
+
+        private Bulk(final List<AlertWithId> alerts, final Map<TopicPartition, Long> nextOffsets) {
+            this.alerts = alerts;
+            this.nextOffsets = nextOffsets;
+        }
+
+        List<AlertWithId> getAlerts() {
+            return alerts;
+        }
+
+        Map<TopicPartition, Long> getNextOffsets() {
+            return nextOffsets;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.expedia.alertmanager.store.task;
+
+import com.expedia.alertmanager.model.store.AlertWithId;
+import com.expedia.alertmanager.store.config.KafkaConfig;
+import com.expedia.alertmanager.store.serde.AlertSerializer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sends the alerts rejected for good by the store to the dead letter topic, keyed by the alert id and with the
+ * rejection reason in the 'error' header. The alerts are only logged when no dead letter topic is configured.
+ * The write of the rejected alerts only completes once they are acknowledged, so their offsets aren't committed
+ * before they are kept in the dead letter topic.
+ */
+public class DeadLetterProducer implements Closeable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(DeadLetterProducer.class);
+    private final static String ERROR_HEADER = "error";
+
+    private final KafkaConfig cfg;
+    private final Producer<String, byte[]> producer;
+    private final AlertSerializer alertSerializer = new AlertSerializer();
+
+    public DeadLetterProducer(final KafkaConfig cfg) {
+        this(cfg, isEnabled(cfg) ? createProducer(cfg) : null);
+    }
+
+    DeadLetterProducer(final KafkaConfig cfg, final Producer<String, byte[]> producer) {
+        this.cfg = cfg;
+        this.producer = producer;
+    }
+
+    /**
+     * send the rejected alerts to the dead letter topic
+     * @return future completed once all the alerts are acknowledged by kafka, or failed if any of them is not
+     */
+    CompletableFuture<Void> send(final List<AlertWithId> alerts, final Exception ex) {
+        if (producer == null) {
+            LOGGER.error("Dropping {} alerts rejected by the store as no dead letter topic is configured", alerts.size(), ex);
+            return CompletableFuture.completedFuture(null);
+        }
+        final byte[] error = String.valueOf(ex.getMessage()).getBytes(StandardCharsets.UTF_8);
+        final CompletableFuture<?>[] sends = new CompletableFuture<?>[alerts.size()];
+        for (int i = 0; i < alerts.size(); i++) {
+            final AlertWithId alert = alerts.get(i);
+            final CompletableFuture<Void> sent = new CompletableFuture<>();
+            sends[i] = sent;
+            try {
+                final ProducerRecord<String, byte[]> record =
+                        new ProducerRecord<>(cfg.getDeadLetterTopic(), alert.getId(), toBytes(alert));
+                record.headers().add(ERROR_HEADER, error);
+                producer.send(record, (metadata, sendException) -> {
+                    if (sendException != null) {
+                        LOGGER.error("Fail to send the alert with id={} to the dead letter topic", alert.getId(), sendException);
+                        sent.completeExceptionally(sendException);
+                    } else {
+                        sent.complete(null);
+                    }
+                });
+            } catch (final Exception sendException) {
+                LOGGER.error("Fail to send the alert with id={} to the dead letter topic", alert.getId(), sendException);
+                sent.completeExceptionally(sendException);
+            }
+        }
+        return CompletableFuture.allOf(sends);
+    }
+
+    // the alert is sent as consumed when the store had no need to deserialize it
+    private byte[] toBytes(final AlertWithId alert) {
+        return alert.getRawAlert() != null
+                ? alert.getRawAlert() : alertSerializer.serialize(cfg.getDeadLetterTopic(), alert.getAlert());
+    }
+
+    @Override
+    public void close() {
+        if (producer != null) {
+            producer.close(cfg.getCloseTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static boolean isEnabled(final KafkaConfig cfg) {
+        return cfg.getDeadLetterTopic() != null && !cfg.getDeadLetterTopic().isEmpty();
+    }
+
+    private static Producer<String, byte[]> createProducer(final KafkaConfig cfg) {
+        final Properties props = new Properties();
+        final Object bootstrapServers = cfg.getConsumer().get(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG);
+        if (bootstrapServers != null) {
+            props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers.toString());
+        }
+        cfg.getProducer().forEach((key, value) -> props.setProperty(key.toString(), value.toString()));
+        return new KafkaProducer<>(props, new StringSerializer(), new ByteArraySerializer());
+    }
+}
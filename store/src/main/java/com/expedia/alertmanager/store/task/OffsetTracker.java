@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.expedia.alertmanager.store.task;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Tracks the in-flight writes of every topic partition, in the order they were issued, and computes for each
+ * partition the offset to commit, the highest one below which all the writes completed.
+ *
+ * The tracker itself is only accessed from the consumer thread. Store callbacks only flip the completed or failed
+ * flag of their {@link PendingWrite}, so completing a write is lock-free and doesn't depend on the number of writes
+ * in flight. A failed write is not in flight anymore but its offsets, and the ones after it, are never committed.
+ */
+class OffsetTracker {
+
+    private final Map<TopicPartition, PartitionOffsets> partitions = new HashMap<>();
+
+    /**
+     * registers a write holding records of one or more partitions
+     * @param nextOffsets offset to commit for each partition in the write once it completes,
+     *                    the offset following the last record of the partition
+     * @return handle to complete once the write succeeded, or to fail once it was given up
+     */
+    PendingWrite track(final Map<TopicPartition, Long> nextOffsets) {
+        final PendingWrite write = new PendingWrite();
+        nextOffsets.forEach((topicPartition, offset) ->
+                partitions.computeIfAbsent(topicPartition, tp -> new PartitionOffsets()).add(write, offset));
+        return write;
+    }
+
+    /**
+     * @return the highest contiguous completed offset of every partition that moved since it was last committed
+     */
+    Map<TopicPartition, OffsetAndMetadata> committableOffsets() {
+        final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        partitions.forEach((topicPartition, partition) -> {
+            partition.advance();
+            if (partition.completedOffset > partition.committedOffset) {
+                offsets.put(topicPartition, new OffsetAndMetadata(partition.completedOffset));
+            }
+        });
+        return offsets;
+    }
+
+    /**
+     * records the offsets as committed, so they are not returned again by {@link #committableOffsets()}
+     * @param offsets committed offsets
+     */
+    void committed(final Map<TopicPartition, OffsetAndMetadata> offsets) {
+        offsets.forEach((topicPartition, offset) -> {
+            final PartitionOffsets partition = partitions.get(topicPartition);
+            if (partition != null && offset.offset() > partition.committedOffset) {
+                partition.committedOffset = offset.offset();
+            }
+        });
+    }
+
+    /**
+     * @param topicPartitions partitions to check
+     * @return true if a write holding records of one of the partitions is still in flight
+     */
+    boolean hasInFlight(final Collection<TopicPartition> topicPartitions) {
+        for (final TopicPartition topicPartition : topicPartitions) {
+            final PartitionOffsets partition = partitions.get(topicPartition);
+            if (partition != null) {
+                partition.advance();
+                if (partition.inFlight() > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return partitions with tracked writes
+     */
+    Set<TopicPartition> partitions() {
+        return new HashSet<>(partitions.keySet());
+    }
+
+    /**
+     * drops the state of partitions no longer assigned, their writes still in flight are not tracked anymore
+     * @param topicPartitions revoked partitions
+     */
+    void remove(final Collection<TopicPartition> topicPartitions) {
+        topicPartitions.forEach(partitions::remove);
+    }
+
+    /**
+     * @return number of partition writes still in flight
+     */
+    int inFlight() {
+        int inFlight = 0;
+        for (final PartitionOffsets partition : partitions.values()) {
+            inFlight += partition.inFlight();
+        }
+        return inFlight;
+    }
+
+    /**
+     * handle of a write given to the store callback, can be completed from any thread
+     */
+    static class PendingWrite {
+        private volatile boolean completed;
+        private volatile boolean failed;
+
+        void complete() {
+            completed = true;
+        }
+
+        void fail() {
+            failed = true;
+        }
+
+        boolean isCompleted() {
+            return completed;
+        }
+
+        boolean isDone() {
+            return completed || failed;
+        }
+    }
+
+    private static class PendingOffset {
+        private final PendingWrite write;
+        private final long offset;
+
+        private PendingOffset(final PendingWrite write, final long offset) {
+            this.write = write;
+            this.offset = offset;
+        }
+    }
+
+    private static class PartitionOffsets {
+        private final Queue<PendingOffset> pending = new ArrayDeque<>();
+        private long completedOffset = -1;
+        private long committedOffset = -1;
+
+        private void add(final PendingWrite write, final long offset) {
+            pending.add(new PendingOffset(write, offset));
+        }
+
+        // pop the writes that completed in order, a write completing out of order waits for the ones before it
+        // and a failed write stays at the head, so no later offset of the partition is committed
+        private void advance() {
+            PendingOffset head;
+            while ((head = pending.peek()) != null && head.write.isCompleted()) {
+                completedOffset = pending.poll().offset;
+            }
+        }
+
+        private int inFlight() {
+            int inFlight = 0;
+            for (final PendingOffset pendingOffset : pending) {
+                if (!pendingOffset.write.isDone()) {
+                    inFlight++;
+                }
+            }
+            return inFlight;
+        }
+    }
+}
@@ -16,14 +16,13 @@
 
 package com.expedia.alertmanager.store.task;
 
-import com.expedia.alertmanager.model.Alert;
 import com.expedia.alertmanager.model.store.AlertStore;
 import com.expedia.alertmanager.model.store.AlertWithId;
 import com.expedia.alertmanager.store.config.KafkaConfig;
-import com.expedia.alertmanager.store.serde.AlertDeserializer;
 import org.apache.kafka.clients.consumer.*;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,20 +34,25 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 public class StoreTask implements Runnable, Closeable {
     private final static Logger LOGGER = LoggerFactory.getLogger(StoreTask.class);
+    private final static long DRAIN_CHECK_INTERVAL_MS = 10;
 
     private final int taskId;
     private final KafkaConfig cfg;
     private final AlertStore store;
+    private final DeadLetterProducer deadLetterProducer;
 
-    private final KafkaConsumer<String, Alert> consumer;
+    private final Consumer<String, byte[]> consumer;
     private final ScheduledExecutorService wakeupScheduler;
     private final AtomicBoolean shutdownRequested;
-    private final Queue<StoreWriteCallback> callbacks;
+    private final OffsetTracker offsetTracker;
+    private final BulkAccumulator bulkAccumulator;
     private final Semaphore parallelWrites;
     private int wakeups = 0;
     private List<TaskStateListener> stateListeners;
     private TaskStateListener.State state;
-    private long lastCommitTime;
+    private long nextCommitTime;
+    private boolean commitInFlight;
+    private int commitFailures;
 
     private class RebalanceListener implements ConsumerRebalanceListener {
         /**
@@ -58,6 +62,10 @@ public class StoreTask implements Runnable, Closeable {
         @Override
         public void onPartitionsRevoked(Collection<TopicPartition> revokedPartitions) {
             LOGGER.info("Partitions {} revoked at the beginning of consumer rebalance for taskId={}", revokedPartitions, taskId);
+            flushQuietly();
+            drain(revokedPartitions);
+            commitSync();
+            offsetTracker.remove(revokedPartitions);
         }
 
         /**
@@ -72,19 +80,31 @@ public class StoreTask implements Runnable, Closeable {
     public StoreTask(final int taskId,
                      final KafkaConfig cfg,
                      final AlertStore store,
+                     final DeadLetterProducer deadLetterProducer,
                      final int parallelWrites) throws InterruptedException {
+        this(taskId, cfg, store, deadLetterProducer, parallelWrites, createConsumer(taskId, cfg));
+    }
+
+    StoreTask(final int taskId,
+              final KafkaConfig cfg,
+              final AlertStore store,
+              final DeadLetterProducer deadLetterProducer,
+              final int parallelWrites,
+              final Consumer<String, byte[]> consumer) {
         this.taskId = taskId;
         this.cfg = cfg;
         this.store = store;
+        this.deadLetterProducer = deadLetterProducer;
         this.stateListeners = new ArrayList<>();
         this.wakeupScheduler = Executors.newScheduledThreadPool(1);
         this.shutdownRequested = new AtomicBoolean(false);
         this.state = TaskStateListener.State.NOT_RUNNING;
-        this.lastCommitTime = System.currentTimeMillis();
-        this.callbacks = new LinkedList<>();
+        this.nextCommitTime = System.currentTimeMillis() + cfg.getCommitIntervalMillis();
+        this.offsetTracker = new OffsetTracker();
+        this.bulkAccumulator = new BulkAccumulator(cfg);
         this.parallelWrites = new Semaphore(parallelWrites);
 
-        this.consumer = createConsumer(taskId, cfg);
+        this.consumer = consumer;
         consumer.subscribe(Collections.singletonList(cfg.getTopic()), new RebalanceListener());
     }
 
@@ -101,110 +121,148 @@ public class StoreTask implements Runnable, Closeable {
             // may be logging the exception again for kafka specific exceptions, but it is ok.
             LOGGER.error("Stream application faced an exception during processing for taskId={}: ", taskId, ex);
         } finally {
+            if (flushQuietly()) {
+                drain(offsetTracker.partitions());
+            }
+            commitSync();
             consumer.close(cfg.getCloseTimeoutMillis(), TimeUnit.MILLISECONDS);
+            wakeupScheduler.shutdownNow();
             updateStateAndNotify(TaskStateListener.State.CLOSED);
         }
     }
 
+    /**
+     * request the consumer loop to stop, the offsets of the completed writes are committed and the consumer
+     * is closed by the task thread as kafka consumer is not thread safe
+     */
     @Override
     public void close() {
-        consumer.close(cfg.getCloseTimeoutMillis(), TimeUnit.MILLISECONDS);
+        shutdownRequested.set(true);
+        consumer.wakeup();
     }
 
     public void setStateListener(final TaskStateListener listener) {
         this.stateListeners.add(listener);
     }
 
+    /**
+     * @return partitions with tracked writes, to be called from the consumer thread only
+     */
+    Set<TopicPartition> trackedPartitions() {
+        return offsetTracker.partitions();
+    }
+
     /**
      * run the consumer loop till the shutdown is requested or any exception is thrown
      */
     private void runLoop() throws InterruptedException {
         while(!shutdownRequested.get()) {
-            final Optional<ConsumerRecords<String, Alert>> mayBeRecords = poll();
-            if (mayBeRecords.isPresent() && !mayBeRecords.get().isEmpty()) {
-                final ConsumerRecords<String, Alert> records = mayBeRecords.get();
-                final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
-                final List<AlertWithId> saveAlerts = new ArrayList<>();
-
-                for (final ConsumerRecord<String, Alert> record : records) {
-                    saveAlerts.add(transform(record));
-                    updateOffset(offsets, record);
+            final long pollTimeout = bulkAccumulator.isEmpty() ? cfg.getPollTimeoutMillis() :
+                    Math.min(cfg.getPollTimeoutMillis(), bulkAccumulator.remainingLinger(System.currentTimeMillis()));
+            final Optional<ConsumerRecords<String, byte[]>> mayBeRecords = poll(pollTimeout);
+            if (mayBeRecords.isPresent()) {
+                for (final ConsumerRecord<String, byte[]> record : mayBeRecords.get()) {
+                    bulkAccumulator.add(record, transform(record), System.currentTimeMillis());
+                    if (bulkAccumulator.isFull()) {
+                        flush();
+                    }
                 }
+            }
 
-                final StoreWriteCallback callback = new StoreWriteCallback(offsets);
-                // see if the execution is permitted as per parallel writes semaphore
-                parallelWrites.acquire();
+            if (bulkAccumulator.isLingerExpired(System.currentTimeMillis())) {
+                flush();
+            }
 
-                Map<TopicPartition, OffsetAndMetadata> committableOffsets = Collections.emptyMap();
+            // commit the offsets of the writes completed so far
+            commitAsync();
+        }
+    }
 
-                // find the offset that needs to be committed
-                synchronized (callbacks) {
-                    while (true) {
-                        final StoreWriteCallback cbk = callbacks.peek();
-                        if (cbk != null && cbk.callbackReceived) {
-                            // remove the completed callback from the queue
-                            committableOffsets = callbacks.poll().offsets;
-                        } else {
-                            break;
-                        }
-                    }
-                    callbacks.add(callback);
-                }
+    /**
+     * write the accumulated alerts to the store
+     */
+    private void flush() throws InterruptedException {
+        if (bulkAccumulator.isEmpty()) {
+            return;
+        }
+        // see if the execution is permitted as per parallel writes semaphore
+        parallelWrites.acquire();
 
-                store.write(saveAlerts, callback);
-                // commit offsets
+        final BulkAccumulator.Bulk bulk = bulkAccumulator.drain();
+        final OffsetTracker.PendingWrite pendingWrite = offsetTracker.track(bulk.getNextOffsets());
+        store.write(bulk.getAlerts(), new StoreWriteCallback(pendingWrite, System.currentTimeMillis()));
+    }
 
-                commit(committableOffsets, 0);
-            }
+    /**
+     * write the accumulated alerts before the partitions are revoked or the task stops
+     * @return false if the alerts could not be written
+     */
+    private boolean flushQuietly() {
+        try {
+            flush();
+            return true;
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (final Exception ex) {
+            LOGGER.error("Fail to write the accumulated alerts for taskId={}", taskId, ex);
+            return false;
         }
     }
 
     private class StoreWriteCallback implements AlertStore.WriteCallback {
-        private final Map<TopicPartition, OffsetAndMetadata> offsets;
-        private volatile boolean callbackReceived = false;
+        private final OffsetTracker.PendingWrite pendingWrite;
+        private final long writeTime;
+        private final List<CompletableFuture<Void>> deadLetterSends = new CopyOnWriteArrayList<>();
 
-        StoreWriteCallback(Map<TopicPartition, OffsetAndMetadata> committableOffsets) {
-            this.offsets = committableOffsets;
+        StoreWriteCallback(final OffsetTracker.PendingWrite pendingWrite, final long writeTime) {
+            this.pendingWrite = pendingWrite;
+            this.writeTime = writeTime;
         }
 
         @Override
         public void onComplete(final Optional<Exception> ex) {
-            if (!ex.isPresent()) {
-                // commit offsets
-                synchronized (callbacks) {
-                    for (final StoreWriteCallback cbk : callbacks) {
-                        if (cbk == this) {
-                            cbk.callbackReceived = true;
+            bulkAccumulator.onWriteCompleted(System.currentTimeMillis() - writeTime, !ex.isPresent());
+            if (ex.isPresent()) {
+                LOGGER.error("Fail to write to elastic search after all retries with error", ex.get());
+                onFailure();
+                return;
+            }
+            // the rejected alerts must be kept in the dead letter topic before their offsets are committed
+            CompletableFuture.allOf(deadLetterSends.toArray(new CompletableFuture<?>[0]))
+                    .whenComplete((ignored, deadLetterEx) -> {
+                        if (deadLetterEx == null) {
+                            // the offsets become committable once all the writes before this one complete
+                            pendingWrite.complete();
                             parallelWrites.release();
+                        } else {
+                            LOGGER.error("Fail to send the rejected alerts to the dead letter topic", deadLetterEx);
+                            onFailure();
                         }
-                    }
-                }
-            } else {
-                // dont commit anything if exception happens
-                LOGGER.error("Fail to write to elastic search after all retries with error", ex);
-                updateStateAndNotify(TaskStateListener.State.FAILED);
-            }
+                    });
         }
-    }
 
-    private void updateOffset(final Map<TopicPartition, OffsetAndMetadata> committableOffsets,
-                                         final ConsumerRecord<String, Alert> record) {
-        final TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
-        final OffsetAndMetadata offset = committableOffsets.get(topicPartition);
-        if (offset == null) {
-            committableOffsets.put(topicPartition, new OffsetAndMetadata(record.offset()));
-        } else {
-            if (offset.offset() < record.offset()) {
-                committableOffsets.put(topicPartition, new OffsetAndMetadata(record.offset()));
-            }
+        @Override
+        public void onDeadLetter(final List<AlertWithId> alerts, final Exception ex) {
+            deadLetterSends.add(deadLetterProducer.send(alerts, ex));
+        }
+
+        private void onFailure() {
+            // dont commit anything if exception happens, the write is not waited for by drain anymore
+            pendingWrite.fail();
+            updateStateAndNotify(TaskStateListener.State.FAILED);
+            // the write is not in flight anymore, a failed write must not block the flush on close
+            parallelWrites.release();
         }
     }
 
-    private AlertWithId transform(ConsumerRecord<String, Alert> record) {
+    /**
+     * the alert is passed to the store as consumed, it is validated and converted by the store while writing it
+     */
+    private AlertWithId transform(ConsumerRecord<String, byte[]> record) {
         final AlertWithId aId = new AlertWithId();
         aId.setId(record.topic() + "-" + record.partition() + "-" + record.offset());
-        aId.setAlert(record.value());
-        aId.getAlert().setCreationTime(aId.getAlert().getCreationTime());
+        aId.setRawAlert(record.value());
         return aId;
     }
 
@@ -225,13 +283,14 @@ public class StoreTask implements Runnable, Closeable {
      * before requesting consumer.poll(), schedule a wakeup call as poll() may hang due to network errors in kafka
      * if the poll() doesnt return after a timeout, then wakeup the consumer.
      *
+     * @param pollTimeout time to wait for records
      * @return consumer records from kafka
      */
-    private Optional<ConsumerRecords<String, Alert>> poll() {
+    private Optional<ConsumerRecords<String, byte[]>> poll(final long pollTimeout) {
         final ScheduledFuture wakeupCall = scheduleWakeup();
 
         try {
-            final ConsumerRecords<String, Alert> records = consumer.poll(cfg.getPollTimeoutMillis());
+            final ConsumerRecords<String, byte[]> records = consumer.poll(pollTimeout);
             wakeups = 0;
             return Optional.of(records);
         } catch (WakeupException we) {
@@ -247,27 +306,79 @@ public class StoreTask implements Runnable, Closeable {
     }
 
     /**
-     * commit the offset to kafka with a retry logic
-     * @param offsets map of offsets for each topic partition
-     * @param retryAttempt current retry attempt
+     * wait for the in-flight writes of the revoked partitions to complete, so their offsets get committed before
+     * the partitions move to another consumer. Gives up after the drain timeout, the records of the writes still
+     * in flight will then be stored again by the new owner of the partition.
+     * @param revokedPartitions revoked partitions
      */
-    private void commit(final Map<TopicPartition, OffsetAndMetadata> offsets, int retryAttempt) throws InterruptedException {
+    private void drain(final Collection<TopicPartition> revokedPartitions) {
+        final long deadline = System.currentTimeMillis() + cfg.getRebalanceDrainTimeoutMillis();
         try {
-            final Long currentTime = System.currentTimeMillis();
-            if (currentTime - lastCommitTime >= cfg.getCommitIntervalMillis() &&
-                    !offsets.isEmpty() &&
-                    retryAttempt <= cfg.getMaxCommitRetries()) {
-                LOGGER.info("committing the offsets now for taskId {}", taskId);
+            while (offsetTracker.hasInFlight(revokedPartitions)) {
+                if (System.currentTimeMillis() >= deadline) {
+                    LOGGER.error("In-flight writes for partitions {} did not complete within {} ms for taskId={}",
+                            revokedPartitions, cfg.getRebalanceDrainTimeoutMillis(), taskId);
+                    return;
+                }
+                Thread.sleep(DRAIN_CHECK_INTERVAL_MS);
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * commit the offsets of the completed writes to kafka without blocking the poll loop. The commit callback is
+     * invoked by the consumer thread in a later poll; a failed commit is retried after the commit backoff as long as
+     * the retries are not exhausted, else with the next commit interval, and the offsets stay committable meanwhile.
+     */
+    private void commitAsync() {
+        final long currentTime = System.currentTimeMillis();
+        if (commitInFlight || currentTime < nextCommitTime) {
+            return;
+        }
+        final Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committableOffsets();
+        if (offsets.isEmpty()) {
+            return;
+        }
+        commitInFlight = true;
+        nextCommitTime = currentTime + cfg.getCommitIntervalMillis();
+        consumer.commitAsync(offsets, (committedOffsets, ex) -> {
+            commitInFlight = false;
+            if (ex == null) {
+                commitFailures = 0;
+                offsetTracker.committed(offsets);
+            } else {
+                commitFailures = commitFailures + 1;
+                LOGGER.error("Fail to commit offsets {} to kafka for taskId={}, failed attempts={}",
+                        offsets, taskId, commitFailures, ex);
+                if (commitFailures <= cfg.getMaxCommitRetries()) {
+                    nextCommitTime = System.currentTimeMillis() + cfg.getCommitBackOffMillis();
+                }
+            }
+        });
+    }
+
+    /**
+     * commit the offsets of the completed writes to kafka synchronously, used before the partitions are
+     * revoked and when the task closes. commitSync also completes the async commits still in flight.
+     */
+    private void commitSync() {
+        final Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committableOffsets();
+        if (offsets.isEmpty()) {
+            return;
+        }
+        LOGGER.info("committing the offsets {} synchronously for taskId {}", offsets, taskId);
+        try {
+            try {
+                consumer.commitSync(offsets);
+            } catch (final WakeupException we) {
+                // a wakeup left pending by close() aborts the first blocking call, the commit can be sent again
                 consumer.commitSync(offsets);
-                lastCommitTime = currentTime;
             }
-        } catch(final CommitFailedException  cfe) {
-            LOGGER.error("Fail to commit offset to kafka with error", cfe);
-            Thread.sleep(cfg.getCommitIntervalMillis());
-            // retry offset again
-            commit(offsets, retryAttempt + 1);
+            offsetTracker.committed(offsets);
         } catch (final Exception ex) {
-            LOGGER.error("Fail to commit the offsets with exception", ex);
+            LOGGER.error("Fail to commit the offsets with exception for taskId={}", taskId, ex);
         }
     }
 
@@ -291,12 +402,17 @@ public class StoreTask implements Runnable, Closeable {
         }
     }
 
-    private static KafkaConsumer<String, Alert> createConsumer(final Integer taskId, final KafkaConfig cfg) {
+    private static KafkaConsumer<String, byte[]> createConsumer(final Integer taskId, final KafkaConfig cfg) {
         final Properties props = new Properties();
         cfg.getConsumer().forEach((key, value) -> props.setProperty(key.toString(), value.toString()));
         props.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
         props.setProperty(ConsumerConfig.CLIENT_ID_CONFIG, taskId.toString());
-        return new KafkaConsumer<>(props, new StringDeserializer(), new AlertDeserializer());
+        // sticky assignment keeps most partitions on their consumer across rebalances. With the eager rebalance
+        // protocol every assigned partition is still revoked, so its writes are drained and committed at each rebalance
+        if (!props.containsKey(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG)) {
+            props.setProperty(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, StickyAssignor.class.getName());
+        }
+        return new KafkaConsumer<>(props, new StringDeserializer(), new ByteArrayDeserializer());
     }
 
 }
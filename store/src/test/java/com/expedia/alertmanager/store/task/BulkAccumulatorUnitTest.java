@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.store.task;
+
+import com.expedia.alertmanager.model.store.AlertWithId;
+import com.expedia.alertmanager.store.config.KafkaConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BulkAccumulatorUnitTest {
+
+    @Test
+    public void testFlushOnBulkSize() {
+        final KafkaConfig cfg = new KafkaConfig();
+        cfg.setBulkMinDocs(2);
+        final BulkAccumulator accumulator = new BulkAccumulator(cfg);
+
+        accumulator.add(record(0, 10, 100), new AlertWithId(), 0);
+        Assert.assertFalse(accumulator.isFull());
+        accumulator.add(record(1, 5, 100), new AlertWithId(), 0);
+        Assert.assertTrue(accumulator.isFull());
+
+        final BulkAccumulator.Bulk bulk = accumulator.drain();
+        Assert.assertEquals(2, bulk.getAlerts().size());
+        Assert.assertEquals(11L, (long) bulk.getNextOffsets().get(new TopicPartition("alerts", 0)));
+        Assert.assertEquals(6L, (long) bulk.getNextOffsets().get(new TopicPartition("alerts", 1)));
+        Assert.assertTrue(accumulator.isEmpty());
+        Assert.assertFalse(accumulator.isFull());
+    }
+
+    @Test
+    public void testFlushOnMaxBytes() {
+        final KafkaConfig cfg = new KafkaConfig();
+        cfg.setBulkMaxBytes(150);
+        final BulkAccumulator accumulator = new BulkAccumulator(cfg);
+
+        accumulator.add(record(0, 1, 100), new AlertWithId(), 0);
+        Assert.assertFalse(accumulator.isFull());
+        accumulator.add(record(0, 2, 100), new AlertWithId(), 0);
+        Assert.assertTrue(accumulator.isFull());
+    }
+
+    @Test
+    public void testFlushOnLinger() {
+        final KafkaConfig cfg = new KafkaConfig();
+        cfg.setBulkLingerMillis(200);
+        final BulkAccumulator accumulator = new BulkAccumulator(cfg);
+        Assert.assertFalse(accumulator.isLingerExpired(1000));
+
+        accumulator.add(record(0, 1, 100), new AlertWithId(), 1000);
+        accumulator.add(record(0, 2, 100), new AlertWithId(), 1150);
+        Assert.assertFalse(accumulator.isLingerExpired(1150));
+        Assert.assertEquals(50, accumulator.remainingLinger(1150));
+        Assert.assertTrue(accumulator.isLingerExpired(1200));
+    }
+
+    @Test
+    public void testBulkSizeAdaptsToWriteLatency() {
+        final KafkaConfig cfg = new KafkaConfig();
+        cfg.setBulkMinDocs(100);
+        cfg.setBulkMaxDocs(400);
+        cfg.setBulkDocsStep(100);
+        cfg.setBulkTargetLatencyMillis(1000);
+        final BulkAccumulator accumulator = new BulkAccumulator(cfg);
+        Assert.assertEquals(100, accumulator.getBulkSize());
+
+        accumulator.onWriteCompleted(500, true);
+        accumulator.onWriteCompleted(500, true);
+        Assert.assertEquals(300, accumulator.getBulkSize());
+        accumulator.onWriteCompleted(500, true);
+        accumulator.onWriteCompleted(500, true);
+        Assert.assertEquals("bulk size should not exceed max docs", 400, accumulator.getBulkSize());
+
+        accumulator.onWriteCompleted(1500, true);
+        Assert.assertEquals("slow write should halve the bulk size", 200, accumulator.getBulkSize());
+        accumulator.onWriteCompleted(100, false);
+        Assert.assertEquals("failed write should halve the bulk size", 100, accumulator.getBulkSize());
+        accumulator.onWriteCompleted(100, false);
+        Assert.assertEquals("bulk size should not go below min docs", 100, accumulator.getBulkSize());
+    }
+
+    private static ConsumerRecord<String, byte[]> record(final int partition, final long offset, final int size) {
+        return new ConsumerRecord<>("alerts", partition, offset, 0L, TimestampType.CREATE_TIME, 0L, 0, size,
+                null, new byte[size]);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.store.task;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class OffsetTrackerUnitTest {
+
+    private final TopicPartition tp0 = new TopicPartition("alerts", 0);
+    private final TopicPartition tp1 = new TopicPartition("alerts", 1);
+
+    @Test
+    public void testNothingCommittableBeforeCompletion() {
+        final OffsetTracker tracker = new OffsetTracker();
+        tracker.track(offsets(tp0, 10L));
+        Assert.assertTrue(tracker.committableOffsets().isEmpty());
+        Assert.assertEquals(1, tracker.inFlight());
+    }
+
+    @Test
+    public void testOutOfOrderCompletionWaitsForEarlierWrites() {
+        final OffsetTracker tracker = new OffsetTracker();
+        final OffsetTracker.PendingWrite first = tracker.track(offsets(tp0, 10L));
+        final OffsetTracker.PendingWrite second = tracker.track(offsets(tp0, 20L));
+        final OffsetTracker.PendingWrite third = tracker.track(offsets(tp0, 30L));
+
+        second.complete();
+        Assert.assertTrue(tracker.committableOffsets().isEmpty());
+
+        first.complete();
+        Assert.assertEquals(20L, tracker.committableOffsets().get(tp0).offset());
+
+        third.complete();
+        Assert.assertEquals(30L, tracker.committableOffsets().get(tp0).offset());
+        Assert.assertEquals(0, tracker.inFlight());
+    }
+
+    @Test
+    public void testPartitionsAdvanceIndependently() {
+        final OffsetTracker tracker = new OffsetTracker();
+        final Map<TopicPartition, Long> both = offsets(tp0, 10L);
+        both.put(tp1, 5L);
+        final OffsetTracker.PendingWrite first = tracker.track(both);
+        final OffsetTracker.PendingWrite second = tracker.track(offsets(tp1, 8L));
+
+        second.complete();
+        Assert.assertTrue(tracker.committableOffsets().isEmpty());
+
+        first.complete();
+        final Map<TopicPartition, OffsetAndMetadata> committable = tracker.committableOffsets();
+        Assert.assertEquals(10L, committable.get(tp0).offset());
+        Assert.assertEquals(8L, committable.get(tp1).offset());
+    }
+
+    @Test
+    public void testCommittedOffsetsAreNotReturnedAgain() {
+        final OffsetTracker tracker = new OffsetTracker();
+        tracker.track(offsets(tp0, 10L)).complete();
+        tracker.committed(tracker.committableOffsets());
+        Assert.assertTrue(tracker.committableOffsets().isEmpty());
+
+        tracker.track(offsets(tp0, 15L)).complete();
+        Assert.assertEquals(15L, tracker.committableOffsets().get(tp0).offset());
+    }
+
+    @Test
+    public void testRevokedPartitionsAreDrainedAndRemoved() {
+        final OffsetTracker tracker = new OffsetTracker();
+        final OffsetTracker.PendingWrite first = tracker.track(offsets(tp0, 10L));
+        tracker.track(offsets(tp1, 5L));
+        final Set<TopicPartition> revoked = Collections.singleton(tp0);
+
+        Assert.assertTrue(tracker.hasInFlight(revoked));
+        first.complete();
+        Assert.assertFalse(tracker.hasInFlight(revoked));
+
+        tracker.remove(revoked);
+        Assert.assertTrue(tracker.committableOffsets().isEmpty());
+        Assert.assertEquals(1, tracker.inFlight());
+    }
+
+    @Test
+    public void testFailedWriteIsNotInFlightButBlocksTheCommit() {
+        final OffsetTracker tracker = new OffsetTracker();
+        final OffsetTracker.PendingWrite first = tracker.track(offsets(tp0, 10L));
+        final OffsetTracker.PendingWrite second = tracker.track(offsets(tp0, 20L));
+        final Set<TopicPartition> revoked = Collections.singleton(tp0);
+
+        first.fail();
+        Assert.assertTrue(tracker.hasInFlight(revoked));
+        second.complete();
+        Assert.assertFalse(tracker.hasInFlight(revoked));
+        Assert.assertEquals(0, tracker.inFlight());
+        Assert.assertTrue(tracker.committableOffsets().isEmpty());
+    }
+
+    private static Map<TopicPartition, Long> offsets(final TopicPartition topicPartition, final Long offset) {
+        final Map<TopicPartition, Long> offsets = new HashMap<>();
+        offsets.put(topicPartition, offset);
+        return offsets;
+    }
+}
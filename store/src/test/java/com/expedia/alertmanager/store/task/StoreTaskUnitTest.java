@@ -0,0 +1,392 @@
+/*
+ * Copyright 2018-2019 Expedia Group, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expedia.alertmanager.store.task;
+
+import com.expedia.alertmanager.model.store.AlertStore;
+import com.expedia.alertmanager.model.store.AlertWithId;
+import com.expedia.alertmanager.store.config.KafkaConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.consumer.RetriableCommitFailedException;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+public class StoreTaskUnitTest {
+
+    private static final String TOPIC = "alerts";
+    private static final String DEAD_LETTER_TOPIC = "alerts-dead-letter";
+    private static final long WAIT_TIMEOUT_MS = 5000;
+
+    private final TopicPartition tp0 = new TopicPartition(TOPIC, 0);
+    private final TopicPartition tp1 = new TopicPartition(TOPIC, 1);
+    private final RecordingConsumer consumer = new RecordingConsumer();
+    private final RecordingStore store = new RecordingStore();
+    private StoreTask task;
+    private Thread taskThread;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (taskThread != null) {
+            store.completeAll();
+            task.close();
+            taskThread.join(WAIT_TIMEOUT_MS);
+        }
+    }
+
+    @Test
+    public void testCommitsTheOffsetFollowingTheLastWrittenRecord() {
+        newTask(config(0, 100));
+        addRecords(tp0, 0, 5);
+        addRecords(tp1, 0, 3);
+        start();
+
+        waitFor(() -> committedOffset(tp0) == 5 && committedOffset(tp1) == 3);
+        Assert.assertEquals(8, store.writtenAlerts());
+    }
+
+    @Test
+    public void testOnlyOneAsyncCommitIsInFlight() {
+        consumer.holdCommits = true;
+        newTask(config(0, 100));
+        addRecords(tp0, 0, 5);
+        start();
+        waitFor(() -> consumer.commits().size() == 1);
+
+        addRecords(tp0, 5, 5);
+        waitFor(() -> store.writtenAlerts() == 10);
+        // let the loop run a few times with new committable offsets while the first commit is in flight
+        sleep(100);
+        Assert.assertEquals(1, consumer.commits().size());
+
+        consumer.completeHeldCommit();
+        waitFor(() -> consumer.commits().size() == 2);
+        Assert.assertEquals(5, consumer.commits().get(0).offsets.get(tp0).offset());
+        Assert.assertEquals(10, consumer.commits().get(1).offsets.get(tp0).offset());
+    }
+
+    @Test
+    public void testFailedCommitIsRetriedAfterTheBackoff() {
+        final int commitIntervalMillis = 2000;
+        final int commitBackOffMillis = 100;
+        consumer.failedCommits = 1;
+        newTask(config(commitIntervalMillis, commitBackOffMillis));
+        addRecords(tp0, 0, 5);
+        start();
+
+        waitFor(() -> committedOffset(tp0) == 5);
+        final List<Commit> commits = consumer.commits();
+        Assert.assertEquals(2, commits.size());
+        Assert.assertEquals(commits.get(0).offsets, commits.get(1).offsets);
+        final long retryDelay = commits.get(1).time - commits.get(0).time;
+        Assert.assertTrue("retried after " + retryDelay + " ms",
+                retryDelay >= commitBackOffMillis && retryDelay < commitIntervalMillis);
+    }
+
+    @Test
+    public void testRevokedPartitionsAreDrainedCommittedAndRemoved() {
+        final KafkaConfig cfg = config(60000, 100);
+        cfg.setBulkLingerMillis(60000);
+        newTask(cfg);
+        store.holdWrites = true;
+        addRecords(tp0, 0, 5);
+        addRecords(tp1, 0, 2);
+        start();
+        waitFor(() -> consumer.position(tp0) == 5 && consumer.position(tp1) == 2);
+
+        final AtomicReference<Set<TopicPartition>> trackedAfterRevoke = new AtomicReference<>();
+        consumer.schedulePollTask(() -> {
+            consumer.listener.onPartitionsRevoked(Collections.singleton(tp0));
+            trackedAfterRevoke.set(task.trackedPartitions());
+        });
+        // the accumulated alerts are written before the partitions are given up, the revoke waits for the write.
+        // the consumer is locked by the revoke running in its poll, so only its sync commits are checked meanwhile
+        waitFor(() -> store.heldWrites() == 1);
+        sleep(50);
+        Assert.assertNull(trackedAfterRevoke.get());
+        Assert.assertTrue(consumer.syncCommits.isEmpty());
+
+        store.completeAll();
+        waitFor(() -> trackedAfterRevoke.get() != null);
+        Assert.assertEquals(1, consumer.syncCommits.size());
+        Assert.assertEquals(5, consumer.syncCommits.get(0).offsets.get(tp0).offset());
+        Assert.assertEquals(2, consumer.syncCommits.get(0).offsets.get(tp1).offset());
+        Assert.assertEquals(Collections.singleton(tp1), trackedAfterRevoke.get());
+    }
+
+    @Test
+    public void testRejectedAlertsAreCommittedOnceAcknowledgedByTheDeadLetterTopic() {
+        final MockProducer<String, byte[]> producer = deadLetterProducer();
+        store.rejectFirstAlert = true;
+        addRecords(tp0, 0, 5);
+        start();
+
+        waitFor(() -> producer.history().size() == 1);
+        sleep(100);
+        Assert.assertEquals(-1, committedOffset(tp0));
+
+        producer.completeNext();
+        waitFor(() -> committedOffset(tp0) == 5);
+        Assert.assertEquals(DEAD_LETTER_TOPIC, producer.history().get(0).topic());
+    }
+
+    @Test
+    public void testWriteFailsWhenTheRejectedAlertsCanNotBeSentToTheDeadLetterTopic() {
+        final MockProducer<String, byte[]> producer = deadLetterProducer();
+        final List<TaskStateListener.State> states = new CopyOnWriteArrayList<>();
+        task.setStateListener(states::add);
+        store.rejectFirstAlert = true;
+        addRecords(tp0, 0, 5);
+        start();
+
+        waitFor(() -> producer.history().size() == 1);
+        producer.errorNext(new RuntimeException("dead letter topic unavailable"));
+        waitFor(() -> states.contains(TaskStateListener.State.FAILED));
+        sleep(100);
+        Assert.assertEquals(-1, committedOffset(tp0));
+    }
+
+    private MockProducer<String, byte[]> deadLetterProducer() {
+        final KafkaConfig cfg = config(0, 100);
+        cfg.setDeadLetterTopic(DEAD_LETTER_TOPIC);
+        final MockProducer<String, byte[]> producer =
+                new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer());
+        newTask(cfg, new DeadLetterProducer(cfg, producer));
+        return producer;
+    }
+
+    private KafkaConfig config(final int commitIntervalMillis, final int commitBackOffMillis) {
+        final KafkaConfig cfg = new KafkaConfig();
+        cfg.setTopic(TOPIC);
+        cfg.setBulkMinDocs(1000);
+        cfg.setBulkLingerMillis(10);
+        cfg.setCommitIntervalMillis(commitIntervalMillis);
+        cfg.setCommitBackOffMillis(commitBackOffMillis);
+        cfg.setRebalanceDrainTimeoutMillis(WAIT_TIMEOUT_MS);
+        return cfg;
+    }
+
+    private void newTask(final KafkaConfig cfg) {
+        newTask(cfg, null);
+    }
+
+    private void newTask(final KafkaConfig cfg, final DeadLetterProducer deadLetterProducer) {
+        task = new StoreTask(1, cfg, store, deadLetterProducer, 2, consumer);
+        consumer.rebalance(Arrays.asList(tp0, tp1));
+        final Map<TopicPartition, Long> beginningOffsets = new HashMap<>();
+        beginningOffsets.put(tp0, 0L);
+        beginningOffsets.put(tp1, 0L);
+        consumer.updateBeginningOffsets(beginningOffsets);
+    }
+
+    private void start() {
+        taskThread = new Thread(task);
+        taskThread.start();
+    }
+
+    private void addRecords(final TopicPartition topicPartition, final long fromOffset, final int count) {
+        for (long offset = fromOffset; offset < fromOffset + count; offset++) {
+            consumer.addRecord(new ConsumerRecord<>(topicPartition.topic(), topicPartition.partition(), offset,
+                    "key", new byte[] {1}));
+        }
+    }
+
+    private long committedOffset(final TopicPartition topicPartition) {
+        final OffsetAndMetadata offset = consumer.committed(topicPartition);
+        return offset == null ? -1 : offset.offset();
+    }
+
+    private static void waitFor(final BooleanSupplier condition) {
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("condition not met within " + WAIT_TIMEOUT_MS + " ms");
+            }
+            sleep(5);
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Commit {
+        private final Map<TopicPartition, OffsetAndMetadata> offsets;
+        private final long time;
+
+        private Commit(final Map<TopicPartition, OffsetAndMetadata> offsets, final long time) {
+            this.offsets = new HashMap<>(offsets);
+            this.time = time;
+        }
+    }
+
+    /**
+     * mock consumer recording the async commits, which can be held in flight or failed
+     */
+    private static class RecordingConsumer extends MockConsumer<String, byte[]> {
+        private final List<Commit> commits = new ArrayList<>();
+        private final List<Commit> syncCommits = new CopyOnWriteArrayList<>();
+        private ConsumerRebalanceListener listener;
+        private boolean holdCommits;
+        private int failedCommits;
+        private Map<TopicPartition, OffsetAndMetadata> heldOffsets;
+        private OffsetCommitCallback heldCallback;
+
+        RecordingConsumer() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        @Override
+        public synchronized void subscribe(final Collection<String> topics, final ConsumerRebalanceListener listener) {
+            this.listener = listener;
+            super.subscribe(topics, listener);
+        }
+
+        @Override
+        public ConsumerRecords<String, byte[]> poll(final long timeout) {
+            final ConsumerRecords<String, byte[]> records = super.poll(timeout);
+            if (records.isEmpty()) {
+                // the mock returns at once, don't spin the task loop
+                sleep(1);
+            }
+            return records;
+        }
+
+        @Override
+        public synchronized void commitAsync(final Map<TopicPartition, OffsetAndMetadata> offsets,
+                                             final OffsetCommitCallback callback) {
+            commits.add(new Commit(offsets, System.currentTimeMillis()));
+            if (failedCommits > 0) {
+                failedCommits--;
+                callback.onComplete(offsets, new RetriableCommitFailedException("commit failed"));
+            } else if (holdCommits) {
+                heldOffsets = offsets;
+                heldCallback = callback;
+            } else {
+                super.commitAsync(offsets, callback);
+            }
+        }
+
+        @Override
+        public synchronized void commitSync(final Map<TopicPartition, OffsetAndMetadata> offsets) {
+            syncCommits.add(new Commit(offsets, System.currentTimeMillis()));
+            // the mock commits synchronously through commitAsync, which records the async commits of the task
+            super.commitAsync(offsets, null);
+        }
+
+        synchronized List<Commit> commits() {
+            return new ArrayList<>(commits);
+        }
+
+        /**
+         * completes the held commit in the next poll, as kafka invokes the commit callbacks from poll
+         */
+        synchronized void completeHeldCommit() {
+            final Map<TopicPartition, OffsetAndMetadata> offsets = heldOffsets;
+            final OffsetCommitCallback callback = heldCallback;
+            holdCommits = false;
+            heldOffsets = null;
+            heldCallback = null;
+            schedulePollTask(() -> RecordingConsumer.super.commitAsync(offsets, callback));
+        }
+    }
+
+    /**
+     * store recording the writes, which complete at once unless held. It can reject the first alert of a write
+     */
+    private static class RecordingStore implements AlertStore {
+        private final List<WriteCallback> heldCallbacks = new ArrayList<>();
+        private volatile boolean holdWrites;
+        private volatile boolean rejectFirstAlert;
+        private int writtenAlerts;
+
+        @Override
+        public void write(final List<AlertWithId> alerts, final WriteCallback callback) {
+            if (rejectFirstAlert) {
+                callback.onDeadLetter(alerts.subList(0, 1), new RuntimeException("mapping error"));
+            }
+            synchronized (this) {
+                writtenAlerts += alerts.size();
+                if (holdWrites) {
+                    heldCallbacks.add(callback);
+                    return;
+                }
+            }
+            callback.onComplete(Optional.empty());
+        }
+
+        synchronized int writtenAlerts() {
+            return writtenAlerts;
+        }
+
+        synchronized int heldWrites() {
+            return heldCallbacks.size();
+        }
+
+        /**
+         * completes the held writes from the calling thread, as the store callbacks are not run by the consumer
+         */
+        void completeAll() {
+            final List<WriteCallback> callbacks;
+            synchronized (this) {
+                holdWrites = false;
+                callbacks = new ArrayList<>(heldCallbacks);
+                heldCallbacks.clear();
+            }
+            callbacks.forEach(callback -> callback.onComplete(Optional.empty()));
+        }
+
+        @Override
+        public void read(final Map<String, String> labels, final long from, final long to, final int size,
+                         final ReadCallback callback) {
+            callback.onComplete(Collections.emptyList(), Optional.empty());
+        }
+
+        @Override
+        public void init(final Map<String, Object> config) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}